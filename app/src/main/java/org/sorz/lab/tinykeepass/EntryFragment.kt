@@ -21,8 +21,10 @@ import android.view.ViewGroup
 import android.view.WindowManager.LayoutParams.FLAG_SECURE
 import android.widget.Toast
 import com.google.android.material.floatingactionbutton.FloatingActionButton
+import androidx.preference.PreferenceManager
 
 import org.sorz.lab.tinykeepass.keepass.KeePassStorage
+import org.sorz.lab.tinykeepass.keepass.SearchIndexCache
 
 import com.kunzisoft.keepass.database.element.Entry
 import kotlinx.android.synthetic.main.fragment_entry_list.*
@@ -158,10 +160,19 @@ class EntryFragment : BaseEntryFragment() {
 
     override fun onCreateOptionsMenu(menu: Menu, inflater: MenuInflater) {
         inflater.inflate(R.menu.menu_main, menu)
+        menu.findItem(R.id.action_search_custom_fields).isChecked =
+            PreferenceManager.getDefaultSharedPreferences(requireContext())
+                .getBoolean(SearchIndexCache.PREF_SEARCH_CUSTOM_FIELDS, false)
         super.onCreateOptionsMenu(menu, inflater)
     }
 
     override fun onOptionsItemSelected(item: MenuItem): Boolean = when (item.itemId) {
+        R.id.action_search_custom_fields -> {
+            item.isChecked = !item.isChecked
+            SearchIndexCache.setSearchCustomFields(requireContext(), item.isChecked)
+            entryAdapter.reloadEntries()
+            true
+        }
         R.id.action_lock_db -> {
             (activity as MainActivity).doLockDatabase()
             true
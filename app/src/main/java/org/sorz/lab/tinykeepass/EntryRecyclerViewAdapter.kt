@@ -1,6 +1,8 @@
 package org.sorz.lab.tinykeepass
 
 import android.content.Context
+import android.os.Handler
+import android.os.Looper
 import androidx.recyclerview.widget.RecyclerView
 import android.text.Spannable
 import android.text.SpannableStringBuilder
@@ -12,24 +14,35 @@ import android.view.ViewGroup
 import android.widget.TextView
 import androidx.databinding.BindingAdapter
 
-import org.sorz.lab.tinykeepass.search.EntryQueryRelevance
+import org.sorz.lab.tinykeepass.search.EntryFilter
+import org.sorz.lab.tinykeepass.search.FilterExecutor
+import org.sorz.lab.tinykeepass.search.KeywordRanking
 
 import java.util.function.BiConsumer
 import java.util.function.BiPredicate
+import java.util.concurrent.CancellationException
+import java.util.concurrent.Executors
 
 import com.kunzisoft.keepass.database.element.Entry
 import com.kunzisoft.keepass.icons.IconDrawableFactory
 import com.kunzisoft.keepass.icons.IconPackChooser
 import org.jetbrains.anko.AnkoLogger
+import org.jetbrains.anko.debug
 import org.sorz.lab.tinykeepass.databinding.FragmentEntryBinding
 import org.sorz.lab.tinykeepass.keepass.*
 import java.util.*
 import kotlin.properties.Delegates
-import kotlin.streams.toList
 
 
 private const val PASSWORD_NUM_OF_CHARS_IN_GROUP = 4
 
+// Single thread that runs KeywordRanking, which is not thread-safe.
+private val FILTER_THREAD = Executors.newSingleThreadExecutor()
+
+// Order of entries on the list, and of equally relevant entries on filtered list.
+private val ENTRY_ORDER = compareBy<Entry>(
+    { it.title }, { it.username }, { it.url }, { it.creationTime.date })
+
 class EntryRecyclerViewAdapter (
     private val context: Context,
     private val onClickHandler: BiConsumer<View, Entry>,
@@ -37,7 +50,21 @@ class EntryRecyclerViewAdapter (
 ) : RecyclerView.Adapter<EntryViewHolder>(), AnkoLogger {
     private val allEntries: MutableList<Entry> = loadEntries().toMutableList()
     private var entries: List<Entry> = allEntries
+    private var ranking = KeywordRanking(ENTRY_ORDER)
     private var filter: String? = null
+    private var filterTier = EntryFilter.Tier.ALL_FIELDS
+    // false if only the first page of the filtered list is shown
+    private var filterComplete = true
+    // whether large fields are searched for the current query, once at most
+    private var largeFieldsRequested = false
+    private var recyclerView: RecyclerView? = null
+    private val scrollListener = object : RecyclerView.OnScrollListener() {
+        override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+            if (dy > 0 && !recyclerView.canScrollVertically(1)) onEndReached()
+        }
+    }
+    private var filterCancellation: FilterExecutor.Cancellation? = null
+    private val mainHandler = Handler(Looper.getMainLooper())
     private var selectedPosition by entryPositionObservable()
     private var passwordShownPosition by entryPositionObservable()
     private var iconDrawableFactory: IconDrawableFactory? = null
@@ -52,17 +79,14 @@ class EntryRecyclerViewAdapter (
     fun reloadEntries() {
         allEntries.clear()
         allEntries.addAll(loadEntries())
+        ranking = KeywordRanking(ENTRY_ORDER)
         setFilter(filter)
     }
 
     private fun loadEntries(): Sequence<Entry> {
         return KeePassStorage.get(context)?.let { db ->
             iconDrawableFactory = db.drawFactory
-            db.allEntriesNotInRecycleBin
-                .sortedBy { it.creationTime.date }
-                .sortedBy { it.url }
-                .sortedBy { it.username }
-                .sortedBy { it.title }
+            db.allEntriesNotInRecycleBin.sortedWith(ENTRY_ORDER)
         } ?: emptySequence()
     }
 
@@ -70,6 +94,16 @@ class EntryRecyclerViewAdapter (
         FragmentEntryBinding.inflate(LayoutInflater.from(parent.context), parent, false)
     )
 
+    override fun onAttachedToRecyclerView(recyclerView: RecyclerView) {
+        this.recyclerView = recyclerView
+        recyclerView.addOnScrollListener(scrollListener)
+    }
+
+    override fun onDetachedFromRecyclerView(recyclerView: RecyclerView) {
+        recyclerView.removeOnScrollListener(scrollListener)
+        this.recyclerView = null
+    }
+
     override fun onBindViewHolder(holder: EntryViewHolder, position: Int) {
         val entry = entries[position]
         holder.binding.entry = entry
@@ -94,21 +128,115 @@ class EntryRecyclerViewAdapter (
     override fun getItemCount(): Int = entries.size
 
     fun setFilter(query: String?) {
+        filterCancellation?.cancel()
+        filterCancellation = null
+        filter = query
+        largeFieldsRequested = false
+        if (query.isNullOrBlank()) {
+            showEntries(allEntries, EntryFilter.Tier.ALL_FIELDS)
+            return
+        }
+        search(query, false)
+    }
+
+    /**
+     * Once the end of the complete list matched on small fields is reached,
+     * search notes & custom fields as well for the current query, append
+     * entries only matched on them after the shown ones.
+     */
+    private fun onEndReached() {
+        if (largeFieldsRequested || !filterComplete
+                || filterTier != EntryFilter.Tier.SMALL_FIELDS)
+            return
+        val query = filter ?: return
+        largeFieldsRequested = true
+        filterTier = EntryFilter.Tier.ALL_FIELDS
+        filterCancellation?.cancel()
+        search(query, true)
+    }
+
+    /**
+     * A list too short to scroll has its end reached already, check it once
+     * the posted list is laid out.
+     */
+    private fun checkEndReachedAfterLayout() {
+        if (!filterComplete || filterTier != EntryFilter.Tier.SMALL_FIELDS)
+            return
+        val query = filter
+        recyclerView?.post {
+            if (filter == query && recyclerView?.canScrollVertically(1) == false)
+                onEndReached()
+        }
+    }
+
+    /**
+     * @param allFields search large fields too, and append entries only
+     * matched on them after the shown ones.
+     */
+    private fun search(query: String, allFields: Boolean) {
+        val engine = KeePassStorage.get(context)
+            ?.let { SearchIndexCache.getEngine(context, it) } ?: run {
+            if (!allFields) showEntries(emptyList(), EntryFilter.Tier.ALL_FIELDS)
+            return
+        }
+        val ranking = ranking
+        val cancellation = FilterExecutor.Cancellation()
+        filterCancellation = cancellation
+        // filter off the main thread, one query at a time, drop stale ones
+        FILTER_THREAD.execute {
+            if (cancellation.isCancelled) return@execute
+            val result = try {
+                ranking.setAllFields(allFields)
+                engine.searchScoped(query, ranking, ENTRY_ORDER, cancellation)
+            } catch (e: CancellationException) {
+                return@execute
+            }
+            val tier = ranking.lastTier
+            val firstPageOnly = !allFields && result.size > EntryFilter.FIRST_PAGE_SIZE
+            if (firstPageOnly) {
+                // ranked already, show it before the rest is sorted
+                val firstPage = result.subList(0, EntryFilter.FIRST_PAGE_SIZE).toList()
+                mainHandler.post {
+                    if (!cancellation.isCancelled) showEntries(firstPage, tier, false)
+                }
+            }
+            if (cancellation.isCancelled) return@execute
+            // sort the rest here rather than on binding, then swap it in
+            val entries = result.toList()
+            mainHandler.post {
+                if (!cancellation.isCancelled) {
+                    debug { "filter answered by $tier: ${entries.size} entries" }
+                    if (allFields || firstPageOnly)
+                        appendEntries(entries, tier)
+                    else
+                        showEntries(entries, tier)
+                }
+            }
+        }
+    }
+
+    private fun showEntries(entries: List<Entry>, tier: EntryFilter.Tier,
+                            complete: Boolean = true) {
         selectedPosition = -1
         passwordShownPosition = -1
-        entries = if (query.isNullOrBlank()) {
-            allEntries
-        } else {
-            val keywords = query.toLowerCase(Locale.getDefault()).trim().split(' ')
-            allEntries.parallelStream()
-                    .map { e -> EntryQueryRelevance(e, keywords) }
-                    .filter { it.isRelated }
-                    .sorted()
-                    .map { it.entry }
-                    .toList()
-        }
-        filter = query
+        this.entries = entries
+        filterTier = tier
+        filterComplete = complete
         notifyDataSetChanged()
+        checkEndReachedAfterLayout()
+    }
+
+    private fun appendEntries(entries: List<Entry>, tier: EntryFilter.Tier) {
+        val shown = this.entries.size
+        this.entries = entries
+        filterTier = tier
+        filterComplete = true
+        // shown entries keep their positions (see EntryFilter), only insert the rest
+        if (entries.size >= shown)
+            notifyItemRangeInserted(shown, entries.size - shown)
+        else
+            notifyDataSetChanged()
+        checkEndReachedAfterLayout()
     }
 
     fun showPassword(entry: Entry) {
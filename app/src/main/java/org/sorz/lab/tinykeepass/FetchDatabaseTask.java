@@ -7,6 +7,7 @@ import android.os.AsyncTask;
 import android.util.Log;
 
 import org.apache.commons.io.IOUtils;
+import org.sorz.lab.tinykeepass.keepass.IndexSnapshot;
 import org.sorz.lab.tinykeepass.keepass.KeePassStorage;
 
 import java.io.BufferedOutputStream;
@@ -148,7 +149,7 @@ public class FetchDatabaseTask extends AsyncTask<Void, Void, String> {
         }
         Context context = this.context.get();
         if (context != null)
-            KeePassStorage.set(context, db);
+            KeePassStorage.set(context, db, IndexSnapshot.open(context, masterPassword));
         return null;
     }
 }
@@ -9,6 +9,8 @@ import android.widget.Toast
 import org.jetbrains.anko.AnkoLogger
 import org.jetbrains.anko.warn
 
+import org.sorz.lab.tinykeepass.autofill.FrecencyCache
+import org.sorz.lab.tinykeepass.keepass.IndexSnapshot
 import org.sorz.lab.tinykeepass.keepass.KeePassStorage
 import org.sorz.lab.tinykeepass.keepass.databaseFile
 
@@ -107,6 +109,8 @@ class MainActivity : BaseActivity(), AnkoLogger {
         KeePassStorage.set(this, null)
         if (!databaseFile.delete())
             warn("fail to delete database file")
+        IndexSnapshot.delete(this)
+        FrecencyCache.delete(this)
         secureStringStorage.clear()
         DatabaseSetupActivity.clearDatabaseConfigs(preferences)
         showMessage(getString(R.string.clean_config_ok), Snackbar.LENGTH_SHORT)
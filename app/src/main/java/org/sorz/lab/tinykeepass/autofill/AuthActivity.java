@@ -5,41 +5,72 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentSender;
 import android.os.Build;
+import android.os.Bundle;
 import android.service.autofill.Dataset;
 import android.service.autofill.FillResponse;
+import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
 import android.widget.RemoteViews;
 
 import org.sorz.lab.tinykeepass.R;
-import org.sorz.lab.tinykeepass.search.SearchIndex;
 import org.sorz.lab.tinykeepass.keepass.KeePassStorage;
+import org.sorz.lab.tinykeepass.keepass.SearchIndexCache;
+import org.sorz.lab.tinykeepass.search.Bm25Ranking;
+import org.sorz.lab.tinykeepass.search.DomainIndex;
+import org.sorz.lab.tinykeepass.search.SearchEngine;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.UUID;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import com.kunzisoft.keepass.database.element.Database;
 import com.kunzisoft.keepass.database.element.Entry;
-import com.kunzisoft.keepass.database.element.node.NodeIdUUID;
 import com.kunzisoft.keepass.icons.IconDrawableFactory;
 
 
 @RequiresApi(api = Build.VERSION_CODES.O)
 public class AuthActivity extends BaseActivity {
     private final static int MAX_NUM_CANDIDATE_ENTRIES = 5;
+    final static String EXTRA_TARGET = "target";
+    final static String EXTRA_RESPONSE_ID = "responseId";
 
     @Override
     protected void onDatabaseOpened() {
         StructureParser.Result result = parseStructure();
         Database keePass = KeePassStorage.get(this);
+        SearchEngine engine = SearchIndexCache.getEngine(this, keePass);
         IconDrawableFactory iconFactory = keePass.getDrawFactory();
-        SearchIndex index = new SearchIndex(keePass);
-        StringBuilder queryBuilder = new StringBuilder();
-        result.title.forEach(title -> queryBuilder.append(title).append(' '));
-        Stream<Entry> entryStream = index.search(queryBuilder.toString())
-                .map(entry -> keePass.getEntryById(new NodeIdUUID(entry)));
+        String target = FrecencyCache.targetOf(result);
+        // entries used before on the same app or site go without any lookup
+        List<Entry> exactEntries = getFrecentEntries(engine, target);
+        if (exactEntries.isEmpty())
+            exactEntries = result.webDomain.isEmpty()
+                    ? getAppEntries(engine, result.packageName)
+                    : getDomainEntries(engine, result.webDomain);
+        Stream<Entry> entryStream;
+        if (!exactEntries.isEmpty()) {
+            entryStream = exactEntries.stream();
+        } else {
+            // unknown app or domain, fall back to search on window titles
+            StringBuilder queryBuilder = new StringBuilder();
+            result.title.forEach(title -> queryBuilder.append(title).append(' '));
+            entryStream = engine.search(queryBuilder.toString(), Bm25Ranking.INSTANCE, null)
+                    .stream()
+                    .filter(Objects::nonNull);
+        }
 
         FillResponse.Builder responseBuilder = new FillResponse.Builder();
+        if (target != null) {
+            // for TinyAutofillService to record which dataset is used
+            Bundle clientState = new Bundle();
+            clientState.putString(EXTRA_TARGET, target);
+            clientState.putString(EXTRA_RESPONSE_ID, UUID.randomUUID().toString());
+            responseBuilder.setClientState(clientState);
+        }
         // add matched entities
         entryStream
                 .map(entry -> AutofillUtils.INSTANCE.buildDataset(this, entry, iconFactory, result))
@@ -60,6 +91,35 @@ public class AuthActivity extends BaseActivity {
         finish();
     }
 
+    private static List<Entry> getDomainEntries(SearchEngine engine, List<String> webDomains) {
+        DomainIndex domainIndex = engine.getDomainIndex();
+        return webDomains.stream()
+                .flatMap(domain -> domainIndex.lookup(domain).stream())
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    private static List<Entry> getAppEntries(SearchEngine engine, @Nullable String packageName) {
+        if (packageName == null)
+            return new ArrayList<>();
+        return engine.getPackageIndex().lookup(packageName);
+    }
+
+    /**
+     * @return entries used before on the target, most used first.
+     */
+    private List<Entry> getFrecentEntries(SearchEngine engine, @Nullable String target) {
+        List<Entry> entries = new ArrayList<>();
+        if (target == null)
+            return entries;
+        for (UUID entryId : FrecencyCache.get(this).get(target)) {
+            Entry entry = engine.getEntry(entryId);
+            if (entry != null)
+                entries.add(entry);
+        }
+        return entries;
+    }
+
     static IntentSender getAuthIntentSenderForResponse(Context context) {
         Intent intent = new Intent(context, AuthActivity.class);
         return PendingIntent.getActivity(context, 0, intent,
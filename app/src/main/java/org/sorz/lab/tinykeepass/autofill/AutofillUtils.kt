@@ -34,7 +34,7 @@ internal object AutofillUtils {
         val icon = iconFactory.getIconSuperDrawable(context, entry.icon, 24)
         iconFactory.assignDrawableToRemoteViews(icon, views, R.id.imageIcon)
         val builder = Dataset.Builder(views).apply {
-            setId(entry.nodeId.toString())
+            setId(entry.nodeId.id.toString())
         }
 
         if (entry.password.isNotBlank()) {
@@ -24,6 +24,9 @@ public class EntrySelectActivity extends BaseActivity {
     void onEntrySelected(Entry entry) {
         IconDrawableFactory iconFactory = KeePassStorage.get(this).getDrawFactory();
         StructureParser.Result result = parseStructure();
+        String target = FrecencyCache.targetOf(result);
+        if (target != null)
+            FrecencyCache.get(this).record(target, entry.getNodeId().getId());
         Dataset dataset = AutofillUtils.INSTANCE.buildDataset(this, entry, iconFactory, result);
         FillResponse response = new FillResponse.Builder()
                 .addDataset(dataset)
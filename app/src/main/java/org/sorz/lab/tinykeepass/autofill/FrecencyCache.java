@@ -0,0 +1,326 @@
+package org.sorz.lab.tinykeepass.autofill;
+
+import android.content.Context;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+
+/**
+ * Which entries are filled into an app or a web site, and how frequently &
+ * recently, so that a repeated autofill gets its entries without searching.
+ *
+ * Each use adds one to the entry's count on the target, counts decay by
+ * half every HALF_LIFE_MILLIS. Only targets (package names and domains),
+ * entry UUIDs and counts are kept; a stale UUID simply matches nothing.
+ *
+ * Kept in noBackupFilesDir, encrypted by a key in Android KeyStore that
+ * does not require user authentication, as uses are recorded by the
+ * service before the database is unlocked.
+ */
+public class FrecencyCache {
+    static private final String TAG = FrecencyCache.class.getName();
+    static private final String FILENAME = "autofill-frecency";
+    static private final String KEY_ALIAS = "frecency-key";
+    static private final int VERSION = 2;
+    static private final long HALF_LIFE_MILLIS = 30L * 24 * 3600 * 1000;
+    static private final int MAX_ENTRIES_PER_TARGET = 8;
+    static private final int MAX_TARGETS = 512;
+    static private final int IV_LENGTH = 12;
+    static private final int TAG_BITS = 128;
+    static private final Executor writer = Executors.newSingleThreadExecutor();
+
+    static private FrecencyCache instance;
+
+    final private File file;
+    final private Map<String, List<Usage>> targets = new HashMap<>();
+    // uses already counted from the last autofill response, see recordResponse()
+    @Nullable private String lastResponseId;
+    private int lastResponseCounted;
+
+    static private class Usage {
+        final UUID entryId;
+        // count as of time
+        double count;
+        long time;
+
+        Usage(UUID entryId, double count, long time) {
+            this.entryId = entryId;
+            this.count = count;
+            this.time = time;
+        }
+
+        double countAt(long now) {
+            return count * Math.pow(0.5, (double) (now - time) / HALF_LIFE_MILLIS);
+        }
+    }
+
+    private FrecencyCache(File file) {
+        this.file = file;
+    }
+
+    static synchronized FrecencyCache get(Context context) {
+        if (instance == null) {
+            instance = new FrecencyCache(new File(context.getNoBackupFilesDir(), FILENAME));
+            instance.load();
+        }
+        return instance;
+    }
+
+    /**
+     * Forget all uses and delete the file, e.g. together with the database.
+     */
+    public static synchronized void delete(Context context) {
+        if (instance != null) {
+            synchronized (instance) {
+                instance.targets.clear();
+            }
+        }
+        File file = new File(context.getNoBackupFilesDir(), FILENAME);
+        // after pending writes
+        writer.execute(() -> {
+            if (file.exists() && !file.delete())
+                Log.w(TAG, "fail to delete frecency cache");
+        });
+    }
+
+    /**
+     * @return key of the web site, or the app if not a web page; or null if unknown.
+     */
+    static @Nullable String targetOf(StructureParser.Result result) {
+        if (!result.webDomain.isEmpty())
+            return webTarget(result.webDomain.get(0));
+        return result.packageName != null ? appTarget(result.packageName) : null;
+    }
+
+    private static String appTarget(String packageName) {
+        return "app:" + packageName;
+    }
+
+    private static String webTarget(String domain) {
+        String host = domain.toLowerCase(Locale.ROOT);
+        return "web:" + (host.startsWith("www.") ? host.substring(4) : host);
+    }
+
+    /**
+     * Count uses of entries selected on an autofill response, loading the
+     * cache on the background writer. Entries are all selected on the response
+     * so far, in order; those counted by a former call on the same response
+     * are skipped, so each selection is counted once.
+     */
+    static void recordResponse(Context context, String responseId, String target,
+                               List<UUID> selectedEntryIds) {
+        Context appContext = context.getApplicationContext();
+        writer.execute(() ->
+                get(appContext).recordSelected(responseId, target, selectedEntryIds));
+    }
+
+    private synchronized void recordSelected(String responseId, String target,
+                                             List<UUID> selectedEntryIds) {
+        int counted = responseId.equals(lastResponseId) ? lastResponseCounted : 0;
+        if (selectedEntryIds.size() <= counted)
+            return;
+        lastResponseId = responseId;
+        lastResponseCounted = selectedEntryIds.size();
+        for (UUID entryId : selectedEntryIds.subList(counted, selectedEntryIds.size()))
+            count(target, entryId);
+        save();
+    }
+
+    /**
+     * Count a use of the entry on the target.
+     */
+    synchronized void record(String target, UUID entryId) {
+        count(target, entryId);
+        save();
+    }
+
+    private void count(String target, UUID entryId) {
+        long now = System.currentTimeMillis();
+        List<Usage> usages = targets.get(target);
+        if (usages == null) {
+            if (targets.size() >= MAX_TARGETS)
+                evictTarget(now);
+            usages = new ArrayList<>();
+            targets.put(target, usages);
+        }
+        Usage usage = null;
+        for (Usage u : usages) {
+            if (u.entryId.equals(entryId))
+                usage = u;
+        }
+        if (usage == null) {
+            if (usages.size() >= MAX_ENTRIES_PER_TARGET)
+                usages.remove(leastUsed(usages, now));
+            usage = new Usage(entryId, 0, now);
+            usages.add(usage);
+        }
+        usage.count = usage.countAt(now) + 1;
+        usage.time = now;
+    }
+
+    /**
+     * @return UUIDs of entries used on the target, most used first.
+     */
+    synchronized List<UUID> get(String target) {
+        List<Usage> usages = targets.get(target);
+        List<UUID> entryIds = new ArrayList<>();
+        if (usages == null)
+            return entryIds;
+        long now = System.currentTimeMillis();
+        List<Usage> sorted = new ArrayList<>(usages);
+        sorted.sort((a, b) -> Double.compare(b.countAt(now), a.countAt(now)));
+        for (Usage usage : sorted)
+            entryIds.add(usage.entryId);
+        return entryIds;
+    }
+
+    private void evictTarget(long now) {
+        String evicted = null;
+        double evictedCount = Double.MAX_VALUE;
+        for (Map.Entry<String, List<Usage>> target : targets.entrySet()) {
+            double count = 0;
+            for (Usage usage : target.getValue())
+                count += usage.countAt(now);
+            if (count < evictedCount) {
+                evicted = target.getKey();
+                evictedCount = count;
+            }
+        }
+        targets.remove(evicted);
+    }
+
+    private static Usage leastUsed(List<Usage> usages, long now) {
+        Usage least = usages.get(0);
+        for (Usage usage : usages) {
+            if (usage.countAt(now) < least.countAt(now))
+                least = usage;
+        }
+        return least;
+    }
+
+    private void load() {
+        if (!file.exists())
+            return;
+        try {
+            byte[] data = new byte[(int) file.length()];
+            try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+                input.readFully(data);
+            }
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, getKey(),
+                    new GCMParameterSpec(TAG_BITS, data, 0, IV_LENGTH));
+            byte[] plain = cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH);
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(plain));
+            int version = input.readInt();
+            if (version != 1 && version != VERSION)
+                return;
+            int targetCount = input.readInt();
+            for (int i = 0; i < targetCount; i++) {
+                String target = input.readUTF();
+                int usageCount = input.readUnsignedByte();
+                List<Usage> usages = new ArrayList<>(usageCount);
+                for (int j = 0; j < usageCount; j++)
+                    usages.add(new Usage(new UUID(input.readLong(), input.readLong()),
+                            input.readFloat(), input.readLong()));
+                targets.put(target, usages);
+            }
+            if (version >= 2 && input.readBoolean()) {
+                lastResponseId = input.readUTF();
+                lastResponseCounted = input.readInt();
+            }
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            // RuntimeException if truncated, e.g. shorter than the IV
+            Log.w(TAG, "fail to load frecency cache", e);
+            targets.clear();
+        }
+    }
+
+    private void save() {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(plain)) {
+            output.writeInt(VERSION);
+            output.writeInt(targets.size());
+            for (Map.Entry<String, List<Usage>> target : targets.entrySet()) {
+                output.writeUTF(target.getKey());
+                output.writeByte(target.getValue().size());
+                for (Usage usage : target.getValue()) {
+                    output.writeLong(usage.entryId.getMostSignificantBits());
+                    output.writeLong(usage.entryId.getLeastSignificantBits());
+                    output.writeFloat((float) usage.count);
+                    output.writeLong(usage.time);
+                }
+            }
+            output.writeBoolean(lastResponseId != null);
+            if (lastResponseId != null) {
+                output.writeUTF(lastResponseId);
+                output.writeInt(lastResponseCounted);
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e); // in-memory
+        }
+        writer.execute(() -> write(plain.toByteArray()));
+    }
+
+    private void write(byte[] plain) {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, getKey());
+            byte[] encrypted = cipher.doFinal(plain);
+            try (OutputStream output = new FileOutputStream(tmpFile)) {
+                output.write(cipher.getIV());
+                output.write(encrypted);
+            }
+            if (!tmpFile.renameTo(file))
+                throw new IOException("fail to rename frecency cache");
+        } catch (IOException | GeneralSecurityException e) {
+            Log.w(TAG, "fail to save frecency cache", e);
+        } finally {
+            Arrays.fill(plain, (byte) 0);
+        }
+    }
+
+    private static SecretKey getKey() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance("AndroidKeyStore");
+        keyStore.load(null);
+        if (keyStore.containsAlias(KEY_ALIAS))
+            return (SecretKey) keyStore.getKey(KEY_ALIAS, null);
+        KeyGenerator keyGenerator = KeyGenerator.getInstance(
+                KeyProperties.KEY_ALGORITHM_AES, "AndroidKeyStore");
+        keyGenerator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .build());
+        return keyGenerator.generateKey();
+    }
+}
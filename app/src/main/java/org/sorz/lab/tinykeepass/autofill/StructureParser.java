@@ -32,10 +32,11 @@ class StructureParser {
     Result parse() {
         result = new Result();
         usernameCandidate = null;
+        if (structure.getActivityComponent() != null)
+            result.packageName = structure.getActivityComponent().getPackageName();
         for (int i=0; i<structure.getWindowNodeCount(); ++i) {
             AssistStructure.WindowNode windowNode = structure.getWindowNodeAt(i);
             result.title.add(windowNode.getTitle());
-            result.webDomain.add(windowNode.getRootViewNode().getWebDomain());
             parseViewNode(windowNode.getRootViewNode());
         }
         // If not explicit username field found, add the field just before password field.
@@ -46,6 +47,10 @@ class StructureParser {
     }
 
     private void parseViewNode(AssistStructure.ViewNode node) {
+        // web domain is set on the WebView, not necessarily on the root
+        String webDomain = node.getWebDomain();
+        if (webDomain != null && !result.webDomain.contains(webDomain))
+            result.webDomain.add(webDomain);
         String[] hints = node.getAutofillHints();
         if (hints != null && hints.length > 0) {
             if (Arrays.stream(hints).anyMatch(View.AUTOFILL_HINT_USERNAME::equals))
@@ -76,6 +81,7 @@ class StructureParser {
         final List<AutofillId> username;
         final List<AutofillId> email;
         final List<AutofillId> password;
+        String packageName;
 
         private Result() {
             title = new ArrayList<>();
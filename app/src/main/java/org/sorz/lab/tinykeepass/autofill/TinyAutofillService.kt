@@ -4,6 +4,7 @@ import android.os.Build
 import android.os.CancellationSignal
 import android.service.autofill.AutofillService
 import android.service.autofill.FillCallback
+import android.service.autofill.FillEventHistory
 import android.service.autofill.FillRequest
 import android.service.autofill.FillResponse
 import android.service.autofill.SaveCallback
@@ -14,6 +15,7 @@ import org.jetbrains.anko.debug
 
 import org.sorz.lab.tinykeepass.R
 import org.sorz.lab.tinykeepass.keepass.hasDatabaseConfigured
+import java.util.UUID
 import kotlin.streams.toList
 
 
@@ -23,6 +25,7 @@ class TinyAutofillService : AutofillService(), AnkoLogger {
                                cancellationSignal: CancellationSignal,
                                callback: FillCallback) {
         cancellationSignal.setOnCancelListener { debug("autofill canceled.") }
+        recordUsedDatasets()
         if (!hasDatabaseConfigured) {
             callback.onSuccess(null)
             return
@@ -48,6 +51,33 @@ class TinyAutofillService : AutofillService(), AnkoLogger {
         callback.onSuccess(responseBuilder.build())
     }
 
+    /**
+     * Count entries filled by the last response (see AuthActivity) into FrecencyCache.
+     * The history is kept until the next response, so the same selections are seen
+     * again on later requests; FrecencyCache counts each of them once.
+     */
+    private fun recordUsedDatasets() {
+        val history = fillEventHistory ?: return
+        val events = history.events
+                ?.filter { it.type == FillEventHistory.Event.TYPE_DATASET_SELECTED }
+        if (events.isNullOrEmpty())
+            return
+        // events are all on the same response
+        val clientState = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
+            events.last().clientState else @Suppress("DEPRECATION") history.clientState
+        val target = clientState?.getString(AuthActivity.EXTRA_TARGET) ?: return
+        val responseId = clientState.getString(AuthActivity.EXTRA_RESPONSE_ID) ?: return
+        val entryIds = events.mapNotNull { event ->
+            try {
+                UUID.fromString(event.datasetId ?: return@mapNotNull null)
+            } catch (e: IllegalArgumentException) {
+                null
+            }
+        }
+        debug { "${entryIds.size} datasets used on $target" }
+        FrecencyCache.recordResponse(this, responseId, target, entryIds)
+    }
+
     override fun onSaveRequest(request: SaveRequest, callback: SaveCallback) {
         callback.onFailure(getString(R.string.autofill_not_support_save))
     }
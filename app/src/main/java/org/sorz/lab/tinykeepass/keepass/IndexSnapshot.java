@@ -0,0 +1,220 @@
+package org.sorz.lab.tinykeepass.keepass;
+
+import android.content.Context;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.sorz.lab.tinykeepass.search.FieldWeights;
+import org.sorz.lab.tinykeepass.search.SearchIndex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.kunzisoft.keepass.database.element.Database;
+
+/**
+ * Encrypted snapshot of the search index on noBackupFilesDir, so unlocking
+ * an unchanged database does not need to rebuild it, and a synced one only
+ * needs to index its changed entries.
+ *
+ * The snapshot is tagged with the SHA-256 of database.kdbx, and encrypted by
+ * AES-GCM with a key derived from the master password by HMAC with a key
+ * kept in Android KeyStore. A plain hash of the password would let the
+ * snapshot be brute-forced much faster than the database itself, the
+ * KeyStore one makes it impossible off the device.
+ *
+ * File: magic, version, database hash, IV, then the encrypted index.
+ * The header is authenticated as associated data.
+ */
+public class IndexSnapshot {
+    private static final String TAG = IndexSnapshot.class.getName();
+    private static final String FILENAME = "search-index.snapshot";
+    private static final String KEY_ALIAS = "index-snapshot-key";
+    private static final int MAGIC = 0x544b4958;  // "TKIX"
+    private static final int VERSION = 4;
+    private static final int HASH_LENGTH = 32;
+    private static final int IV_LENGTH = 12;
+    private static final int HEADER_LENGTH = 4 + 4 + HASH_LENGTH;
+    private static final int TAG_BITS = 128;
+
+    final private File file;
+    final private File databaseFile;
+    final private SecretKey key;
+    // of the database file when the index is loaded or built
+    private byte[] databaseHash;
+    // whether the snapshot needs to be written again
+    private boolean stale = true;
+
+    private IndexSnapshot(File file, File databaseFile, SecretKey key) {
+        this.file = file;
+        this.databaseFile = databaseFile;
+        this.key = key;
+    }
+
+    /**
+     * Derive the key of snapshot. Blocks on KeyStore, call it in background.
+     * @return null if the KeyStore is not usable.
+     */
+    public static @Nullable IndexSnapshot open(Context context, String masterPassword) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(getKeyStoreKey());
+            byte[] keyBytes = mac.doFinal(masterPassword.getBytes(StandardCharsets.UTF_8));
+            SecretKey key = new SecretKeySpec(keyBytes, "AES");
+            Arrays.fill(keyBytes, (byte) 0);
+            return new IndexSnapshot(new File(context.getNoBackupFilesDir(), FILENAME),
+                    KeePassHelperKt.getDatabaseFile(context), key);
+        } catch (GeneralSecurityException | IOException e) {
+            Log.w(TAG, "cannot derive snapshot key", e);
+            return null;
+        }
+    }
+
+    /**
+     * Delete the snapshot, e.g. together with the database.
+     */
+    public static void delete(Context context) {
+        File file = new File(context.getNoBackupFilesDir(), FILENAME);
+        if (file.exists() && !file.delete())
+            Log.w(TAG, "fail to delete index snapshot");
+    }
+
+    private static SecretKey getKeyStoreKey() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance("AndroidKeyStore");
+        keyStore.load(null);
+        if (keyStore.containsAlias(KEY_ALIAS))
+            return (SecretKey) keyStore.getKey(KEY_ALIAS, null);
+        KeyGenerator keyGenerator = KeyGenerator.getInstance(
+                KeyProperties.KEY_ALGORITHM_HMAC_SHA256, "AndroidKeyStore");
+        keyGenerator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_SIGN).build());
+        return keyGenerator.generateKey();
+    }
+
+    /**
+     * @return index read from the snapshot and patched to the current database
+     * if it has been changed, or null if there is no usable one (missing, of
+     * other password, or broken).
+     */
+    @Nullable SearchIndex load(Database keePass, FieldWeights weights) {
+        try {
+            databaseHash = hashDatabase();
+        } catch (IOException | GeneralSecurityException e) {
+            Log.w(TAG, "fail to hash database", e);
+            return null;
+        }
+        if (!file.exists())
+            return null;
+        try (FileInputStream input = new FileInputStream(file);
+             FileChannel channel = input.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] header = new byte[HEADER_LENGTH];
+            byte[] iv = new byte[IV_LENGTH];
+            buffer.get(header).get(iv);
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+            if (headerBuffer.getInt() != MAGIC || headerBuffer.getInt() != VERSION)
+                return null;
+            byte[] hash = new byte[HASH_LENGTH];
+            headerBuffer.get(hash);
+            boolean changed = !MessageDigest.isEqual(hash, databaseHash);
+            if (changed)
+                Log.d(TAG, "database changed, patch index on snapshot");
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(header);
+            byte[] plain = new byte[cipher.getOutputSize(buffer.remaining())];
+            int length = cipher.doFinal(buffer, ByteBuffer.wrap(plain));
+            SearchIndex index = SearchIndex.readFrom(new DataInputStream(
+                    new ByteArrayInputStream(plain, 0, length)), keePass, weights);
+            // e.g. custom fields are searched since written
+            stale = changed || index.isPatched();
+            return index;
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            // e.g. changed password, or written by an older version
+            Log.w(TAG, "cannot read index snapshot", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return false if the snapshot is loaded from the same database file.
+     */
+    boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Write the index of the database file hashed on load().
+     */
+    void save(SearchIndex index) {
+        if (databaseHash == null)
+            return;
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            ByteArrayOutputStream plain = new ByteArrayOutputStream();
+            DataOutputStream dataOutput = new DataOutputStream(plain);
+            index.writeTo(dataOutput);
+            dataOutput.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH)
+                    .putInt(MAGIC).putInt(VERSION).put(databaseHash);
+            byte[] iv = new byte[IV_LENGTH];
+            new SecureRandom().nextBytes(iv);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(header.array());
+            byte[] encrypted = cipher.doFinal(plain.toByteArray());
+            try (OutputStream output = new FileOutputStream(tmpFile)) {
+                output.write(header.array());
+                output.write(iv);
+                output.write(encrypted);
+            }
+            if (!tmpFile.renameTo(file))
+                throw new IOException("fail to rename snapshot");
+            stale = false;
+            Log.d(TAG, "index snapshot saved, " + file.length() + " bytes");
+        } catch (IOException | GeneralSecurityException e) {
+            Log.w(TAG, "cannot write index snapshot", e);
+            if (tmpFile.exists() && !tmpFile.delete())
+                Log.w(TAG, "fail to delete temp snapshot");
+        }
+    }
+
+    private byte[] hashDatabase() throws IOException, GeneralSecurityException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream input = new FileInputStream(databaseFile)) {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = input.read(buffer)) > 0)
+                digest.update(buffer, 0, length);
+        }
+        return digest.digest();
+    }
+}
@@ -12,6 +12,7 @@ import com.kunzisoft.keepass.database.element.Database;
 
 /**
  * Keep unlocked KeePass file here statically & globally.
+ * Its searchable projection & search indexes are kept on SearchIndexCache.
  * It will be dropped when:
  *   - process killed by the system (of course;
  *   - just after screen off;
@@ -22,6 +23,7 @@ public class KeePassStorage {
     private static final long AUTH_TIMEOUT_MILLS = 5 * 60 * 1000;  // 5 minutes
     private static Database keePassFile;
     private static long lastAuthTime;
+    private static volatile long generation;
 
     public static @Nullable Database get(Context context) {
         if (keePassFile != null &&
@@ -31,18 +33,38 @@ public class KeePassStorage {
     }
 
     public static void set(Context context, @Nullable Database file) {
+        set(context, file, null);
+    }
+
+    /**
+     * @param snapshot of the search index of the file, see IndexSnapshot.
+     */
+    public static void set(Context context, @Nullable Database file,
+                           @Nullable IndexSnapshot snapshot) {
         if (keePassFile == null && file != null) {
             // first set file, register screen-off receiver.
             registerBroadcastReceiver(context);
         } else if (keePassFile != null && file == null) {
             // clear file, unregister it.
             context.getApplicationContext().unregisterReceiver(broadcastReceiver);
+            SearchIndexCache.clear();
             keePassFile.closeAndClear(null);
         }
         keePassFile = file;
+        generation ++;
+        if (file != null)
+            SearchIndexCache.build(context, file, snapshot);
         lastAuthTime = SystemClock.elapsedRealtime();
     }
 
+    /**
+     * Generation of the database, increased each time set() is called, so that
+     * results computed on an old database can be told apart.
+     */
+    public static long getGeneration() {
+        return generation;
+    }
+
     public static void registerBroadcastReceiver(Context context) {
         IntentFilter screenOffFilter = new IntentFilter();
         screenOffFilter.addAction(Intent.ACTION_SCREEN_OFF);
@@ -22,6 +22,7 @@ open class OpenKeePassTask(
     private val activity: WeakReference<FragmentActivity> = WeakReference(fragActivity)
     private val path: File = fragActivity.databaseFile
     private var errorMessage: String? = null
+    private var indexSnapshot: IndexSnapshot? = null
 
     override fun doInBackground(vararg voids: Void): Database? {
         errorMessage = try {
@@ -33,6 +34,7 @@ open class OpenKeePassTask(
                 act!!.contentResolver, act.cacheDir, true, null)
             }
             debug { "open db in ${System.currentTimeMillis() - t} ms" }
+            activity.get()?.let { indexSnapshot = IndexSnapshot.open(it, key) }
             return keePassFile
         } catch (e: UnsupportedOperationException) {
             warn("cannot open database.", e)
@@ -55,6 +57,6 @@ open class OpenKeePassTask(
             else dialogFragment.onOpenOk()
         }
         if (result != null)
-            activity.get()?.let { KeePassStorage.set(it, result) }
+            activity.get()?.let { KeePassStorage.set(it, result, indexSnapshot) }
     }
 }
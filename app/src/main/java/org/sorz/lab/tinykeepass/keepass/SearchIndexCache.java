@@ -0,0 +1,349 @@
+package org.sorz.lab.tinykeepass.keepass;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.preference.PreferenceManager;
+
+import org.sorz.lab.tinykeepass.search.DomainIndex;
+import org.sorz.lab.tinykeepass.search.EntryQueryRelevance;
+import org.sorz.lab.tinykeepass.search.FieldWeights;
+import org.sorz.lab.tinykeepass.search.GroupTree;
+import org.sorz.lab.tinykeepass.search.PackageIndex;
+import org.sorz.lab.tinykeepass.search.SubstringIndex;
+import org.sorz.lab.tinykeepass.search.QueryCache;
+import org.sorz.lab.tinykeepass.search.SearchEngine;
+import org.sorz.lab.tinykeepass.search.SearchIndex;
+import org.sorz.lab.tinykeepass.search.SearchStats;
+import org.sorz.lab.tinykeepass.search.SearchableEntry;
+import org.sorz.lab.tinykeepass.search.TermDictionary;
+import org.sorz.lab.tinykeepass.search.TrigramIndex;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import com.kunzisoft.keepass.database.element.Database;
+import com.kunzisoft.keepass.database.element.Entry;
+import com.kunzisoft.keepass.database.element.node.NodeIdUUID;
+
+/**
+ * Keep the search indexes of the unlocked KeePass file here, next to
+ * KeePassStorage, so autofill requests and entry list filtering do not have
+ * to re-tokenize the whole database every time. Both search through the
+ * SearchEngine of the file, see getEngine().
+ *
+ * Indexes (and the searchable projection of entries they are built from)
+ * are built in background once a file is set to KeePassStorage, and dropped
+ * together with the file. Each engine holds the indexes of its own file, so
+ * an engine taken before the file is replaced never sees the new indexes.
+ *
+ * Recent query results are cached as well, keyed by generation of the file.
+ *
+ * Which fields are searched is taken from preferences on building, see
+ * setSearchCustomFields().
+ */
+public class SearchIndexCache {
+    private static final String TAG = SearchIndexCache.class.getName();
+    private static final int SEARCH_CACHE_SIZE = 32;
+    private static final int FILTER_CACHE_SIZE = 64;
+    public static final String PREF_SEARCH_CUSTOM_FIELDS = "search-custom-fields";
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final QueryCache<SearchIndex.Ranking> searchCache =
+            new QueryCache<>(SEARCH_CACHE_SIZE);
+    private static final QueryCache<List<EntryQueryRelevance>> filterCache =
+            new QueryCache<>(FILTER_CACHE_SIZE);
+    private static volatile Engine engine;
+
+    /**
+     * Start building indexes for the file in background, replacing the old ones.
+     * @param snapshot to load the search index from, and to save it to if
+     *                 it is rebuilt or patched; or null.
+     */
+    static synchronized void build(Context context, Database keePass,
+                                   @Nullable IndexSnapshot snapshot) {
+        clear();
+        Engine building = new Engine(keePass, KeePassStorage.getGeneration(),
+                fieldWeightsOf(context));
+        building.buildInBackground(snapshot);
+        engine = building;
+    }
+
+    private static FieldWeights fieldWeightsOf(Context context) {
+        return FieldWeights.DEFAULT.withCustomFields(PreferenceManager
+                .getDefaultSharedPreferences(context)
+                .getBoolean(PREF_SEARCH_CUSTOM_FIELDS, false));
+    }
+
+    /**
+     * Search custom fields of entries or not, the indexes of the current
+     * file (if any) are built again in background.
+     */
+    public static synchronized void setSearchCustomFields(Context context, boolean searched) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putBoolean(PREF_SEARCH_CUSTOM_FIELDS, searched)
+                .apply();
+        if (engine != null) {
+            Database keePass = engine.keePass;
+            long generation = engine.generation;
+            clear();
+            Engine building = new Engine(keePass, generation,
+                    FieldWeights.DEFAULT.withCustomFields(searched));
+            building.buildInBackground(null);
+            engine = building;
+        }
+    }
+
+    private static <T> Future<T> submit(String name, Callable<T> builder) {
+        return executor.submit(() -> {
+            long t = System.currentTimeMillis();
+            T index = builder.call();
+            Log.d(TAG, name + " built in " + (System.currentTimeMillis() - t) + " ms");
+            return index;
+        });
+    }
+
+    static synchronized void clear() {
+        if (engine != null)
+            engine.cancel();
+        engine = null;
+        Log.d(TAG, "search cache: " + searchCache + "; filter cache: " + filterCache);
+        Log.d(TAG, SearchStats.dump());
+        searchCache.clear();
+        filterCache.clear();
+    }
+
+    /**
+     * @param keePass the file currently kept on KeePassStorage.
+     * @return the search engine on indexes of the file.
+     */
+    public static SearchEngine getEngine(Context context, Database keePass) {
+        Engine current = engine;
+        if (current != null && current.keePass == keePass)
+            return current;
+        synchronized (SearchIndexCache.class) {
+            // not built on KeePassStorage (should not happen), build on demand
+            if (engine == null || engine.keePass != keePass)
+                engine = new Engine(keePass, KeePassStorage.getGeneration(),
+                        fieldWeightsOf(context));
+            return engine;
+        }
+    }
+
+    /**
+     * An index of the engine's file, built in background if submitted.
+     * If there is no usable result (e.g. building failed or not submitted),
+     * one is built on the caller's thread instead and kept. Once cancelled,
+     * as the file is dropped, nothing is built or kept anymore.
+     */
+    static private class Built<T> {
+        private static final Future<?> CANCELLED = cancelledFuture();
+
+        final private AtomicReference<Future<T>> future = new AtomicReference<>();
+        final private Supplier<T> builder;
+
+        Built(Supplier<T> builder) {
+            this.builder = builder;
+        }
+
+        private static Future<?> cancelledFuture() {
+            CompletableFuture<?> cancelled = new CompletableFuture<>();
+            cancelled.cancel(false);
+            return cancelled;
+        }
+
+        void submit(String name) {
+            submit(name, builder::get);
+        }
+
+        void submit(String name, Callable<T> builder) {
+            future.set(SearchIndexCache.submit(name, builder));
+        }
+
+        @SuppressWarnings("unchecked")
+        void cancel() {
+            Future<T> cancelled = future.getAndSet((Future<T>) CANCELLED);
+            if (cancelled != null)
+                cancelled.cancel(true);
+        }
+
+        private boolean isCancelled() {
+            return future.get() == CANCELLED;
+        }
+
+        /**
+         * Wait for the index if building is still in progress.
+         * @throws CancellationException if the engine is cancelled.
+         */
+        T get() {
+            Future<T> current = future.get();
+            if (current != null) {
+                try {
+                    return current.get();
+                } catch (InterruptedException | ExecutionException | CancellationException e) {
+                    if (isCancelled())
+                        throw new CancellationException("engine cancelled");
+                    Log.w(TAG, "fail to get index built in background", e);
+                }
+            }
+            T result = builder.get();
+            // not kept if cancelled meanwhile, its file may be cleared
+            if (!future.compareAndSet(current, CompletableFuture.completedFuture(result))
+                    && isCancelled())
+                throw new CancellationException("engine cancelled");
+            return result;
+        }
+
+        /**
+         * @return the index without waiting, or null if it is not built yet.
+         */
+        @Nullable T getIfReady() {
+            Future<T> current = future.get();
+            if (current == null || current == CANCELLED || !current.isDone())
+                return null;
+            try {
+                return current.get();
+            } catch (InterruptedException | ExecutionException | CancellationException e) {
+                Log.w(TAG, "fail to get index built in background", e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Engine on indexes of one file. Waiting getters fall back to building on
+     * the caller's thread if the background building failed, or throw
+     * CancellationException once the file is dropped (see cancel()).
+     */
+    static private class Engine implements SearchEngine {
+        final private Database keePass;
+        final private long generation;
+        final private FieldWeights weights;
+        final private Built<GroupTree> groupTree;
+        final private Built<List<SearchableEntry>> projection;
+        final private Built<SearchIndex> index;
+        // shared by substring and trigram indexes, tokenized once
+        final private Built<TermDictionary> dictionary;
+        final private Built<SubstringIndex> substringIndex;
+        final private Built<TrigramIndex> trigramIndex;
+        final private Built<DomainIndex> domainIndex;
+        final private Built<PackageIndex> packageIndex;
+
+        Engine(Database keePass, long generation, FieldWeights weights) {
+            this.keePass = keePass;
+            this.generation = generation;
+            this.weights = weights;
+            groupTree = new Built<>(() -> new GroupTree(keePass));
+            projection = new Built<>(() -> SearchableEntry.project(keePass));
+            index = new Built<>(() -> new SearchIndex(keePass, weights));
+            dictionary = new Built<>(() -> new TermDictionary(projection.get()));
+            substringIndex = new Built<>(() -> new SubstringIndex(dictionary.get(), weights));
+            trigramIndex = new Built<>(() -> new TrigramIndex(dictionary.get()));
+            domainIndex = new Built<>(() -> new DomainIndex(projection.get()));
+            packageIndex = new Built<>(() -> new PackageIndex(projection.get()));
+        }
+
+        /**
+         * Build all indexes on the background executor, those autofill needs first.
+         */
+        void buildInBackground(@Nullable IndexSnapshot snapshot) {
+            groupTree.submit("group tree");
+            projection.submit("projection");
+            domainIndex.submit("domain index");
+            packageIndex.submit("package index");
+            index.submit("search index", () -> {
+                SearchIndex loaded = snapshot != null
+                        ? snapshot.load(keePass, weights) : null;
+                SearchIndex built = loaded != null
+                        ? loaded : new SearchIndex(keePass, weights);
+                if (snapshot != null && snapshot.isStale())
+                    executor.submit(() -> snapshot.save(built));
+                return built;
+            });
+            dictionary.submit("term dictionary");
+            substringIndex.submit("substring index");
+            trigramIndex.submit("trigram index");
+        }
+
+        void cancel() {
+            for (Built<?> built : new Built<?>[] {groupTree, projection, index, dictionary,
+                    substringIndex, trigramIndex, domainIndex, packageIndex})
+                built.cancel();
+        }
+
+        @Override
+        public @Nullable Entry getEntry(UUID entryId) {
+            Entry entry = keePass.getEntryById(new NodeIdUUID(entryId));
+            return entry != null && !getGroupTree().isInRecycleBin(entry) ? entry : null;
+        }
+
+        @Override
+        public long getGeneration() {
+            return generation;
+        }
+
+        @Override
+        public GroupTree getGroupTree() {
+            return groupTree.get();
+        }
+
+        @Override
+        public FieldWeights getFieldWeights() {
+            return weights;
+        }
+
+        @Override
+        public List<SearchableEntry> getProjection() {
+            return projection.get();
+        }
+
+        @Override
+        public SearchIndex getSearchIndex() {
+            return index.get();
+        }
+
+        @Override
+        public DomainIndex getDomainIndex() {
+            return domainIndex.get();
+        }
+
+        @Override
+        public PackageIndex getPackageIndex() {
+            return packageIndex.get();
+        }
+
+        @Override
+        public TrigramIndex getTrigramIndex() {
+            return trigramIndex.get();
+        }
+
+        @Override
+        public @Nullable SubstringIndex getSubstringIndexIfReady() {
+            return substringIndex.getIfReady();
+        }
+
+        @Override
+        public @Nullable TrigramIndex getTrigramIndexIfReady() {
+            return trigramIndex.getIfReady();
+        }
+
+        @Override
+        public QueryCache<SearchIndex.Ranking> getSearchCache() {
+            return searchCache;
+        }
+
+        @Override
+        public QueryCache<List<EntryQueryRelevance>> getFilterCache() {
+            return filterCache;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.sorz.lab.tinykeepass.search;
+
+import androidx.annotation.Nullable;
+
+import org.sorz.lab.tinykeepass.search.SearchStats.Stage;
+
+import java.util.AbstractList;
+import java.util.List;
+
+import com.kunzisoft.keepass.database.element.Entry;
+
+/**
+ * Rank by BM25 on tokens of all fields (see SearchIndex), retry with typos
+ * corrected if nothing matched. Suits long queries like window titles,
+ * where most words are not in any entry.
+ *
+ * Rankings are cached on the engine. Entries are looked up as they are
+ * read from the result, so taking the first few is cheap.
+ */
+public class Bm25Ranking implements RankingStrategy {
+    public static final Bm25Ranking INSTANCE = new Bm25Ranking();
+
+    private Bm25Ranking() {}
+
+    @Override
+    public List<Entry> search(SearchEngine engine, String query,
+                              @Nullable GroupTree.Scope scope,
+                              @Nullable FilterExecutor.Cancellation cancellation) {
+        QueryCache<SearchIndex.Ranking> cache = engine.getSearchCache();
+        String key = scope != null ? scope.getKey() + '\0' + query : query;
+        SearchIndex.Ranking ranking = cache.get(engine.getGeneration(), key);
+        if (ranking == null) {
+            SearchIndex index = engine.getSearchIndex();
+            ranking = index.rank(query, scope);
+            if (ranking.size() == 0) {
+                // maybe typos, retry with corrected words
+                String corrected = engine.getTrigramIndex().correct(query);
+                if (!corrected.equals(query))
+                    ranking = index.rank(corrected, scope);
+            }
+            cache.put(engine.getGeneration(), key, ranking);
+        }
+        SearchIndex.Ranking result = ranking;
+        return new AbstractList<Entry>() {
+            @Override
+            public Entry get(int index) {
+                long time = System.nanoTime();
+                Entry entry = engine.getEntry(result.get(index));
+                SearchStats.record(Stage.MAP_ENTRY, time);
+                return entry;
+            }
+
+            @Override
+            public int size() {
+                return result.size();
+            }
+        };
+    }
+}
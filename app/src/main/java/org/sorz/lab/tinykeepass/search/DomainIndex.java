@@ -0,0 +1,145 @@
+package org.sorz.lab.tinykeepass.search;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.kunzisoft.keepass.database.element.Entry;
+
+/**
+ * Index hostnames of entry URLs on a trie of reversed labels
+ * (com → example → login), to find entries for a web domain of autofill
+ * request without full-text search.
+ *
+ * Entries on the requested host and on its parent domains, up to the
+ * registrable domain (e.g. example.co.uk), are matched, those sharing more
+ * labels with the requested host first. Sibling subdomains are never
+ * matched: without a public suffix list there is no telling whether they
+ * belong to the same site, e.g. victim.github.io and attacker.github.io.
+ */
+public class DomainIndex {
+    // Second-level labels under which ccTLDs commonly register (co.uk, com.au,
+    // ne.jp, ...). No public suffix list is shipped, this covers the usual cases.
+    private static final Set<String> SECOND_LEVEL_LABELS = new HashSet<>(Arrays.asList(
+            "ac", "co", "com", "edu", "gov", "ne", "net", "or", "org"));
+
+    final private Node root = new Node();
+
+    /**
+     * Build a index that contains given entries.
+     * @param entries projection of entries of the KeePass file.
+     */
+    public DomainIndex(List<SearchableEntry> entries) {
+        for (SearchableEntry entry : entries) {
+            String[] labels = labels(hostnameOf(entry.url));
+            if (labels == null)
+                continue;
+            Node node = root;
+            for (int i = labels.length - 1; i >= 0; i--) {
+                Node child = node.children.get(labels[i]);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(labels[i], child);
+                }
+                node = child;
+            }
+            node.entries.add(entry.getEntry());
+        }
+    }
+
+    /**
+     * Find entries on given domain and its parent domains.
+     * @param domain web domain of the request, e.g. accounts.example.co.uk
+     * @return matched entries, those on the domain itself first, then those on
+     * its parent domains down to the registrable domain.
+     */
+    public List<Entry> lookup(@Nullable String domain) {
+        List<Entry> matched = new ArrayList<>();
+        String[] labels = labels(domain);
+        if (labels == null)
+            return matched;
+        int registrable = registrableLength(labels);
+
+        // walk down, keep nodes from the registrable domain to the deepest match
+        List<Node> path = new ArrayList<>();
+        Node node = root;
+        for (int depth = 1; depth <= labels.length; depth++) {
+            node = node.children.get(labels[labels.length - depth]);
+            if (node == null)
+                break;
+            if (depth >= registrable)
+                path.add(node);
+        }
+        for (int i = path.size() - 1; i >= 0; i--)
+            matched.addAll(path.get(i).entries);
+        return matched;
+    }
+
+    /**
+     * @return the hostname of a URL, e.g. https://user@example.com:8080/path
+     * to example.com, or null if there is not.
+     */
+    static @Nullable String hostnameOf(String url) {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0)
+            end ++;
+        start = Math.max(start, url.lastIndexOf('@', end - 1) + 1);
+        String host = url.substring(start, end);
+        if (host.startsWith("[")) // IPv6 literal
+            return null;
+        int port = host.indexOf(':');
+        if (port >= 0)
+            host = host.substring(0, port);
+        return host.isEmpty() ? null : host;
+    }
+
+    /**
+     * @return lower-cased labels of a hostname, or null if it is not a domain
+     * name with at least two labels.
+     */
+    private static @Nullable String[] labels(@Nullable String hostname) {
+        if (hostname == null)
+            return null;
+        hostname = hostname.trim().toLowerCase(Locale.ROOT);
+        if (hostname.endsWith("."))
+            hostname = hostname.substring(0, hostname.length() - 1);
+        if (hostname.startsWith("www."))
+            hostname = hostname.substring(4);
+        String[] labels = hostname.split("\\.");
+        if (labels.length < 2)
+            return null;
+        for (String label : labels) {
+            if (label.isEmpty())
+                return null;
+        }
+        return labels;
+    }
+
+    /**
+     * @return number of labels of the registrable domain, e.g. 2 for
+     * example.com and 3 for example.co.uk. May be longer than labels if
+     * the given one is a public suffix itself.
+     */
+    private static int registrableLength(String[] labels) {
+        int n = labels.length;
+        if (Character.isDigit(labels[n - 1].charAt(0))) // IPv4 address
+            return n;
+        if (labels[n - 1].length() == 2 && SECOND_LEVEL_LABELS.contains(labels[n - 2]))
+            return 3;
+        return 2;
+    }
+
+    static private class Node {
+        final Map<String, Node> children = new HashMap<>(4);
+        final List<Entry> entries = new ArrayList<>(1);
+    }
+}
@@ -0,0 +1,356 @@
+package org.sorz.lab.tinykeepass.search;
+
+import androidx.annotation.Nullable;
+
+import org.sorz.lab.tinykeepass.search.SearchStats.Stage;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import com.kunzisoft.keepass.database.element.Entry;
+
+/**
+ * Filter and sort entries with EntryQueryRelevance for search-as-you-type.
+ *
+ * Results of recent queries are kept on a small stack. A query that extends
+ * one of them (typing one more character) only re-checks entries matched by
+ * that query; a query seen recently (backspace) is restored from the stack.
+ *
+ * Only the first page of results is ranked up front, the rest are ranked
+ * once they are read (user scrolls down).
+ *
+ * Search is tiered. Small fields (see SearchField.large) are searched first;
+ * if they already fill the first page, large fields (notes, custom fields)
+ * are left unread until all fields are asked for (e.g. user scrolls to the
+ * end of the list), then entries only matched on them are appended after
+ * the shown ones. Otherwise all fields are searched right away.
+ *
+ * Entries are checked on a FilterExecutor, sequentially or in parallel
+ * depending on the amount of work. A stale query can be cancelled.
+ *
+ * If nothing matches, the query is retried with words corrected by a
+ * TrigramIndex, so a typo still finds the entry.
+ *
+ * A query may be scoped to some groups (see GroupTree.Scope); entries out
+ * of the scope are skipped before they are scored.
+ *
+ * Unordered results may also be shared across filters of the same database
+ * generation with a QueryCache, so reopening the list and typing the same
+ * query again does not re-check all entries.
+ */
+public class EntryFilter {
+    private static final int MAX_HISTORY = 16;
+    // Number of results ranked up front, the rest are sorted on first access.
+    public static final int FIRST_PAGE_SIZE = 32;
+
+    private final List<SearchableEntry> allEntries;
+    private final FieldWeights weights;
+    private final FieldWeights smallFieldWeights;
+    private final Comparator<EntryQueryRelevance> order;
+    @Nullable private final QueryCache<List<EntryQueryRelevance>> cache;
+    private final long generation;
+    // most recent query on the top (first)
+    private final Deque<Result> history = new ArrayDeque<>();
+    private final FilterExecutor executor = new FilterExecutor();
+    private Tier lastTier = Tier.ALL_FIELDS;
+
+    public enum Tier {
+        // only small fields were searched
+        SMALL_FIELDS,
+        ALL_FIELDS,
+    }
+
+    /**
+     * @param allEntries projection of entries to filter.
+     * @param tieOrder order of entries that are equally relevant.
+     */
+    public EntryFilter(List<SearchableEntry> allEntries, Comparator<Entry> tieOrder) {
+        this(allEntries, tieOrder, FieldWeights.DEFAULT, null, 0);
+    }
+
+    /**
+     * @param allEntries projection of entries to filter.
+     * @param tieOrder order of entries that are equally relevant.
+     * @param weights of fields to search on.
+     * @param cache shared cache of unordered results, or null.
+     * @param generation database generation that allEntries come from.
+     */
+    public EntryFilter(List<SearchableEntry> allEntries, Comparator<Entry> tieOrder,
+                       FieldWeights weights,
+                       @Nullable QueryCache<List<EntryQueryRelevance>> cache,
+                       long generation) {
+        this.allEntries = allEntries;
+        this.weights = weights;
+        smallFieldWeights = weights.withoutLargeFields();
+        this.cache = cache;
+        this.generation = generation;
+        order = Comparator.<EntryQueryRelevance>naturalOrder()
+                .thenComparing(EntryQueryRelevance::getEntry, tieOrder);
+    }
+
+    /**
+     * @param keywords lower-cased keywords.
+     * @param scope entries out of it are skipped, or null.
+     * @param substringIndex used to narrow down candidates if given.
+     * @param trigramIndex used to correct typos if given.
+     * @param allFields search all fields even if small ones fill the first page.
+     * @param cancellation to stop filtering once the query is stale, or null.
+     * @return related entries, most relevant first. Must not be modified.
+     * @throws java.util.concurrent.CancellationException if cancelled.
+     */
+    public List<Entry> filter(List<String> keywords, @Nullable GroupTree.Scope scope,
+                              @Nullable SubstringIndex substringIndex,
+                              @Nullable TrigramIndex trigramIndex, boolean allFields,
+                              @Nullable FilterExecutor.Cancellation cancellation) {
+        long time = System.nanoTime();
+        String scopeKey = scope != null ? scope.getKey() : null;
+        Result base = null;
+        // small-field result of the same query, to append to
+        Result extended = null;
+        Iterator<Result> iterator = history.iterator();
+        while (iterator.hasNext()) {
+            Result result = iterator.next();
+            boolean usable = !allFields || result.tier == Tier.ALL_FIELDS;
+            if (!Objects.equals(result.scopeKey, scopeKey)) {
+                iterator.remove();
+                continue;
+            }
+            if (result.keywords.equals(keywords)) {
+                if (!usable) {
+                    extended = result;
+                    continue;
+                }
+                lastTier = result.tier;
+                SearchStats.record(Stage.FILTER_TOTAL, time);
+                return result.entries();
+            }
+            if (EntryQueryRelevance.isRefinement(result.keywords, keywords)) {
+                if (!usable)
+                    continue;
+                base = result;
+                break;
+            }
+            // neither current query nor its refinements will use it again
+            iterator.remove();
+        }
+
+        Result result = null;
+        if (!allFields && (base == null || base.tier == Tier.SMALL_FIELDS)) {
+            List<EntryQueryRelevance> related =
+                    search(keywords, scope, Tier.SMALL_FIELDS, base, substringIndex, null,
+                            cancellation);
+            if (related.size() >= FIRST_PAGE_SIZE)
+                result = new Result(keywords, scopeKey, Tier.SMALL_FIELDS, related, order);
+            else
+                base = null; // fall through, a small-field result cannot be refined
+        }
+        if (result == null) {
+            List<EntryQueryRelevance> related =
+                    search(keywords, scope, Tier.ALL_FIELDS, base, substringIndex, trigramIndex,
+                            cancellation);
+            result = extended != null ? Result.extending(extended, related, order)
+                    : new Result(keywords, scopeKey, Tier.ALL_FIELDS, related, order);
+        }
+        lastTier = result.tier;
+        history.addFirst(result);
+        if (history.size() > MAX_HISTORY)
+            history.removeLast();
+        SearchStats.record(Stage.FILTER_TOTAL, time);
+        return result.entries();
+    }
+
+    /**
+     * @return which tier answered the last filter() call.
+     */
+    public Tier getLastTier() {
+        return lastTier;
+    }
+
+    /**
+     * @param base result to refine (of the same tier), or null.
+     * @return unordered related entries on fields of the tier.
+     */
+    private List<EntryQueryRelevance> search(List<String> keywords,
+                                             @Nullable GroupTree.Scope scope, Tier tier,
+                                             @Nullable Result base,
+                                             @Nullable SubstringIndex substringIndex,
+                                             @Nullable TrigramIndex trigramIndex,
+                                             @Nullable FilterExecutor.Cancellation cancellation) {
+        FieldWeights tierWeights = tier == Tier.ALL_FIELDS ? weights : smallFieldWeights;
+        String query = tier.name() + ':' + String.join(" ", keywords);
+        if (scope != null)
+            query = scope.getKey() + '\0' + query;
+        List<EntryQueryRelevance> related = cache != null ? cache.get(generation, query) : null;
+        if (related == null) {
+            related = base != null ? refine(base, keywords, cancellation)
+                    : match(keywords, scope, tierWeights, substringIndex, cancellation);
+            if (related.isEmpty() && trigramIndex != null)
+                related = fuzzyMatch(keywords, scope, trigramIndex, cancellation);
+            // the empty one may be corrected once trigram index is ready
+            if (cache != null && (!related.isEmpty() || trigramIndex != null
+                    || tier == Tier.SMALL_FIELDS))
+                cache.put(generation, query, related);
+        }
+        return related;
+    }
+
+    private List<EntryQueryRelevance> refine(Result base, List<String> keywords,
+                                             @Nullable FilterExecutor.Cancellation cancellation) {
+        long time = System.nanoTime();
+        KeywordMatcher matcher = new KeywordMatcher(keywords);
+        time = SearchStats.record(Stage.FILTER_KEYWORDS, time);
+        List<EntryQueryRelevance> related = executor.mapFilter(base.related,
+                r -> r.refine(matcher), EntryQueryRelevance::isRelated, cancellation);
+        SearchStats.record(Stage.FILTER_MATCH, time);
+        return related;
+    }
+
+    private List<EntryQueryRelevance> match(List<String> keywords,
+                                            @Nullable GroupTree.Scope scope, FieldWeights weights,
+                                            @Nullable SubstringIndex substringIndex,
+                                            @Nullable FilterExecutor.Cancellation cancellation) {
+        long time = System.nanoTime();
+        KeywordMatcher matcher = new KeywordMatcher(keywords);
+        time = SearchStats.record(Stage.FILTER_KEYWORDS, time);
+        List<SearchableEntry> candidates = substringIndex != null
+                ? substringIndex.candidates(keywords, weights) : null;
+        time = SearchStats.record(Stage.FILTER_CANDIDATES, time);
+        // entries out of scope are skipped (mapped to null) without scoring
+        List<EntryQueryRelevance> related = executor.mapFilter(
+                candidates != null ? candidates : allEntries,
+                e -> inScope(e, scope) ? new EntryQueryRelevance(e, matcher, weights) : null,
+                EntryFilter::isRelated, cancellation);
+        SearchStats.record(Stage.FILTER_MATCH, time);
+        return related;
+    }
+
+    private List<EntryQueryRelevance> fuzzyMatch(List<String> keywords,
+                                                 @Nullable GroupTree.Scope scope,
+                                                 TrigramIndex trigramIndex,
+                                                 @Nullable FilterExecutor.Cancellation cancellation) {
+        long time = System.nanoTime();
+        List<List<String>> corrections = new ArrayList<>(keywords.size());
+        List<String> allCorrections = new ArrayList<>();
+        for (String keyword : keywords) {
+            List<String> words = trigramIndex.corrections(keyword);
+            corrections.add(words);
+            allCorrections.addAll(words);
+        }
+        List<SearchableEntry> candidates = trigramIndex.candidates(allCorrections);
+        time = SearchStats.record(Stage.FILTER_CANDIDATES, time);
+        List<EntryQueryRelevance> related = executor.mapFilter(candidates,
+                e -> inScope(e, scope)
+                        ? new EntryQueryRelevance(e, corrected(e, keywords, corrections), weights)
+                        : null,
+                EntryFilter::isRelated, cancellation);
+        SearchStats.record(Stage.FILTER_MATCH, time);
+        return related;
+    }
+
+    private static boolean inScope(SearchableEntry entry, @Nullable GroupTree.Scope scope) {
+        return scope == null || scope.contains(entry.getEntry());
+    }
+
+    private static boolean isRelated(@Nullable EntryQueryRelevance relevance) {
+        return relevance != null && relevance.isRelated();
+    }
+
+    /**
+     * @return keywords replaced with their closest correction the entry contains.
+     */
+    private static List<String> corrected(SearchableEntry entry, List<String> keywords,
+                                          List<List<String>> corrections) {
+        List<String> corrected = new ArrayList<>(keywords.size());
+        for (int i = 0; i < keywords.size(); i++) {
+            String keyword = keywords.get(i);
+            for (String word : corrections.get(i)) {
+                if (entry.contains(word)) {
+                    keyword = word;
+                    break;
+                }
+            }
+            corrected.add(keyword);
+        }
+        return corrected;
+    }
+
+    private static class Result {
+        final List<String> keywords;
+        @Nullable final String scopeKey;
+        final Tier tier;
+        // unordered
+        final List<EntryQueryRelevance> related;
+        final List<EntryQueryRelevance> ranked;
+
+        Result(List<String> keywords, @Nullable String scopeKey, Tier tier,
+               List<EntryQueryRelevance> related, Comparator<EntryQueryRelevance> order) {
+            this(keywords, scopeKey, tier, related,
+                    new LazyRankedList<>(related, order, FIRST_PAGE_SIZE));
+        }
+
+        private Result(List<String> keywords, @Nullable String scopeKey, Tier tier,
+                       List<EntryQueryRelevance> related, List<EntryQueryRelevance> ranked) {
+            this.keywords = keywords;
+            this.scopeKey = scopeKey;
+            this.tier = tier;
+            this.related = related;
+            this.ranked = ranked;
+        }
+
+        /**
+         * @param small result of the same query on small fields.
+         * @param related unordered entries related on all fields.
+         * @return result on all fields ranked as the small one, followed by
+         * entries only related on large fields, so shown ones stay in place.
+         */
+        static Result extending(Result small, List<EntryQueryRelevance> related,
+                                Comparator<EntryQueryRelevance> order) {
+            Set<Entry> shown = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (EntryQueryRelevance relevance : small.related)
+                shown.add(relevance.getEntry());
+            List<EntryQueryRelevance> more = new ArrayList<>();
+            for (EntryQueryRelevance relevance : related) {
+                if (!shown.contains(relevance.getEntry()))
+                    more.add(relevance);
+            }
+            List<EntryQueryRelevance> first = small.ranked;
+            List<EntryQueryRelevance> rest = new LazyRankedList<>(more, order, FIRST_PAGE_SIZE);
+            List<EntryQueryRelevance> ranked = new AbstractList<EntryQueryRelevance>() {
+                @Override
+                public EntryQueryRelevance get(int index) {
+                    return index < first.size() ? first.get(index)
+                            : rest.get(index - first.size());
+                }
+
+                @Override
+                public int size() {
+                    return first.size() + rest.size();
+                }
+            };
+            return new Result(small.keywords, small.scopeKey, Tier.ALL_FIELDS, related, ranked);
+        }
+
+        List<Entry> entries() {
+            return new AbstractList<Entry>() {
+                @Override
+                public Entry get(int index) {
+                    return ranked.get(index).getEntry();
+                }
+
+                @Override
+                public int size() {
+                    return ranked.size();
+                }
+            };
+        }
+    }
+}
@@ -10,43 +10,129 @@ import com.kunzisoft.keepass.database.element.Entry;
 /**
  * Given a list of keywords, return an score of relevance between
  * entry and keywords.
+ * Entries are matched on their case-folded projection (SearchableEntry).
  */
 public class EntryQueryRelevance implements Comparable<EntryQueryRelevance> {
-    private static final double WEIGHT_KW_IN_TITLE = 1.0;
-    private static final double WEIGHT_KW_IN_USERNAME = 0.8;
-    private static final double WEIGHT_KW_IN_NOTES = 0.5;
-    private static final double WEIGHT_KW_IN_URL = 0.5;
-
-    private final Entry entry;
+    private final SearchableEntry entry;
+    private final FieldWeights weights;
+    private final List<String> keywords;
+    private final double[] ranks;
     private final double rank;
     private final int unrelatedKeywords;
 
-    public EntryQueryRelevance(Entry entry, List<String> keywords) {
+    public EntryQueryRelevance(SearchableEntry entry, List<String> keywords) {
+        this(entry, keywords, FieldWeights.DEFAULT);
+    }
+
+    public EntryQueryRelevance(SearchableEntry entry, List<String> keywords,
+                               FieldWeights weights) {
+        this(entry, new KeywordMatcher(keywords), weights);
+    }
+
+    /**
+     * @param matcher of query keywords, may be shared by all entries.
+     */
+    public EntryQueryRelevance(SearchableEntry entry, KeywordMatcher matcher,
+                               FieldWeights weights) {
+        this(entry, weights, matcher.getKeywords(), keywordScores(entry, weights, matcher));
+    }
+
+    private EntryQueryRelevance(SearchableEntry entry, FieldWeights weights,
+                                List<String> keywords, double[] ranks) {
         this.entry = entry;
-        double[] ranks = keywords.stream().mapToDouble(w ->
-                fieldScore(entry.getTitle(), w) * WEIGHT_KW_IN_TITLE +
-                        fieldScore(entry.getUsername(), w) * WEIGHT_KW_IN_USERNAME +
-                        fieldScore(entry.getNotes(), w) * WEIGHT_KW_IN_NOTES +
-                        fieldScore(entry.getUrl(), w) * WEIGHT_KW_IN_URL).toArray();
+        this.weights = weights;
+        this.keywords = keywords;
+        this.ranks = ranks;
         rank = Arrays.stream(ranks).sum();
         unrelatedKeywords = (int) Arrays.stream(ranks).filter(r -> r == 0).count();
     }
 
+    /**
+     * Check whether the relevance on new keywords can be derived from the
+     * relevance on old ones, i.e. they have the same number of keywords, and
+     * each new keyword starts with the old keyword at the same position.
+     * In that case, a keyword unrelated to an entry stay unrelated.
+     */
+    public static boolean isRefinement(List<String> keywords, List<String> newKeywords) {
+        if (newKeywords.size() != keywords.size())
+            return false;
+        for (int i = 0; i < keywords.size(); i++) {
+            if (!newKeywords.get(i).startsWith(keywords.get(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get relevance of the same entry on keywords which refine current ones
+     * (see isRefinement()). Only changed keywords are checked against the entry.
+     */
+    public EntryQueryRelevance refine(List<String> newKeywords) {
+        return refine(new KeywordMatcher(newKeywords));
+    }
+
+    /**
+     * @param matcher of new keywords, may be shared by all entries.
+     * @see #refine(List)
+     */
+    public EntryQueryRelevance refine(KeywordMatcher matcher) {
+        List<String> newKeywords = matcher.getKeywords();
+        double[] newRanks = ranks;
+        for (int i = 0; i < ranks.length; i++) {
+            if (ranks[i] != 0 && !newKeywords.get(i).equals(keywords.get(i))) {
+                // some keyword changed, scan the entry once for all of them
+                double[] scores = keywordScores(entry, weights, matcher);
+                newRanks = new double[ranks.length];
+                for (int j = 0; j < ranks.length; j++)
+                    newRanks[j] = ranks[j] == 0 ? 0 : scores[j];
+                break;
+            }
+        }
+        return new EntryQueryRelevance(entry, weights, newKeywords, newRanks);
+    }
+
+    /**
+     * @return score of each keyword on the entry, each field is scanned once.
+     */
+    private static double[] keywordScores(SearchableEntry entry, FieldWeights weights,
+                                          KeywordMatcher matcher) {
+        List<String> keywords = matcher.getKeywords();
+        double[] scores = new double[keywords.size()];
+        boolean[] found = new boolean[keywords.size()];
+        for (SearchField field : SearchField.values()) {
+            float weight = weights.get(field);
+            // skip unweighted fields before extracting them
+            if (weight == 0)
+                continue;
+            String text = entry.get(field);
+            Arrays.fill(found, false);
+            if (matcher.find(text, found) == 0)
+                continue;
+            for (int i = 0; i < scores.length; i++) {
+                if (found[i])
+                    scores[i] += fieldScore(text, keywords.get(i)) * weight;
+            }
+        }
+        return scores;
+    }
+
     public boolean isRelated() {
         return rank > 0;
     }
 
     public Entry getEntry() {
-        return entry;
+        return entry.getEntry();
     }
 
     private static double logScore(int queryLength, int totalLength) {
         return Math.log(Math.E - 1 + queryLength * 1.0 / totalLength);
     }
 
+    /**
+     * @param field case-folded field, which contains the query.
+     * @param query lower-cased keyword.
+     */
     private static double fieldScore(String field, String query) {
-        if (field == null || !field.toLowerCase().contains(query))
-            return 0;
         // TODO: give prefix matching higher score
         // assumptions: longer words has higher importance;
         // "true match" of keywords are seldom repeated on single field.
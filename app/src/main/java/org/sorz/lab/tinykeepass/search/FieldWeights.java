@@ -0,0 +1,70 @@
+package org.sorz.lab.tinykeepass.search;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Weight of each SearchField on relevance. Immutable.
+ * A field of zero weight is not searched, nor indexed if it is an extra one.
+ */
+public class FieldWeights {
+    private static final float CUSTOM_FIELDS_WEIGHT = 0.5f;
+
+    /**
+     * Custom fields are not searched by default, as an entry may have many
+     * long ones; see withCustomFields().
+     */
+    public static final FieldWeights DEFAULT = new FieldWeights(new EnumMap<>(SearchField.class))
+            .with(SearchField.TITLE, 1.0f)
+            .with(SearchField.USERNAME, 0.8f)
+            .with(SearchField.NOTES, 0.5f)
+            .with(SearchField.URL, 0.5f)
+            .with(SearchField.TAGS, 0.8f)
+            .with(SearchField.GROUP_PATH, 0.3f);
+
+    final private Map<SearchField, Float> weights;
+
+    private FieldWeights(Map<SearchField, Float> weights) {
+        this.weights = weights;
+    }
+
+    /**
+     * @return a copy with weight of given field replaced.
+     */
+    public FieldWeights with(SearchField field, float weight) {
+        if (weight < 0)
+            throw new IllegalArgumentException("negative weight");
+        Map<SearchField, Float> copy = new EnumMap<>(SearchField.class);
+        copy.putAll(weights);
+        copy.put(field, weight);
+        return new FieldWeights(copy);
+    }
+
+    /**
+     * @return a copy with custom fields searched or not.
+     */
+    public FieldWeights withCustomFields(boolean searched) {
+        return with(SearchField.CUSTOM_FIELDS, searched ? CUSTOM_FIELDS_WEIGHT : 0);
+    }
+
+    /**
+     * @return a copy with weights of large fields set to zero.
+     */
+    public FieldWeights withoutLargeFields() {
+        Map<SearchField, Float> copy = new EnumMap<>(SearchField.class);
+        for (Map.Entry<SearchField, Float> weight : weights.entrySet()) {
+            if (!weight.getKey().large)
+                copy.put(weight.getKey(), weight.getValue());
+        }
+        return new FieldWeights(copy);
+    }
+
+    public float get(SearchField field) {
+        Float weight = weights.get(field);
+        return weight != null ? weight : 0;
+    }
+
+    public boolean isSearched(SearchField field) {
+        return get(field) > 0;
+    }
+}
@@ -0,0 +1,148 @@
+package org.sorz.lab.tinykeepass.search;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Map and filter a list of entries, sequentially or in parallel.
+ *
+ * Going parallel only pays off if there is enough work to share. The cost
+ * per item is measured on each run, and the next run goes parallel only if
+ * its estimated time is long enough. Parallel runs use a dedicated pool of
+ * a few threads, so they do not compete with others on the common pool
+ * (e.g. building search indexes on unlock).
+ */
+public class FilterExecutor {
+    // Estimated run time (ns) above which parallel running is worth it.
+    private static final long PARALLEL_THRESHOLD_NANOS = 1_000_000;
+    private static final int MIN_PARALLEL_ITEMS = 64;
+    private static final int MAX_PARALLELISM = 4;
+    // Items between cancellation checks, also the chunk size of parallel runs.
+    private static final int CHECK_INTERVAL = 64;
+    // Weight of the latest measurement on the moving average.
+    private static final double COST_SMOOTHING = 0.3;
+    // Assumed cost (ns) per item before anything is measured.
+    private static final double INITIAL_NANOS_PER_ITEM = 2_000;
+
+    private static final ForkJoinPool pool = new ForkJoinPool(Math.min(MAX_PARALLELISM,
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1)));
+
+    // moving average of cost (ns) per item
+    private volatile double nanosPerItem = INITIAL_NANOS_PER_ITEM;
+
+    /**
+     * Cancel a running query once a newer one is issued.
+     */
+    public static class Cancellation {
+        private volatile boolean cancelled;
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        void throwIfCancelled() {
+            if (cancelled)
+                throw new CancellationException("stale query");
+        }
+    }
+
+    /**
+     * @return results of mapper on items that are accepted by the predicate,
+     * in no particular order.
+     * @throws CancellationException if cancelled before done.
+     */
+    <T, R> List<R> mapFilter(List<T> items, Function<? super T, ? extends R> mapper,
+                             Predicate<? super R> predicate,
+                             @Nullable Cancellation cancellation) {
+        long start = System.nanoTime();
+        boolean parallel = isWorthParallel(items.size());
+        List<R> results = parallel
+                ? runParallel(items, mapper, predicate, cancellation)
+                : runSequential(items, mapper, predicate, cancellation);
+        if (!items.isEmpty()) {
+            long elapsed = System.nanoTime() - start;
+            double cost = (double) elapsed / items.size();
+            if (parallel)
+                cost *= pool.getParallelism();
+            nanosPerItem = nanosPerItem * (1 - COST_SMOOTHING) + cost * COST_SMOOTHING;
+        }
+        return results;
+    }
+
+    private boolean isWorthParallel(int size) {
+        if (size < MIN_PARALLEL_ITEMS || pool.getParallelism() < 2)
+            return false;
+        return nanosPerItem * size > PARALLEL_THRESHOLD_NANOS;
+    }
+
+    private static <T, R> List<R> runSequential(List<T> items,
+                                                Function<? super T, ? extends R> mapper,
+                                                Predicate<? super R> predicate,
+                                                @Nullable Cancellation cancellation) {
+        List<R> results = runRange(items, 0, items.size(), mapper, predicate, cancellation);
+        if (cancellation != null)
+            cancellation.throwIfCancelled();
+        return results;
+    }
+
+    /**
+     * Run on items from (inclusive) to (exclusive), stop early if cancelled.
+     * @return results so far, partial if cancelled.
+     */
+    private static <T, R> List<R> runRange(List<T> items, int from, int to,
+                                           Function<? super T, ? extends R> mapper,
+                                           Predicate<? super R> predicate,
+                                           @Nullable Cancellation cancellation) {
+        List<R> results = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            if (cancellation != null && (i - from) % CHECK_INTERVAL == 0
+                    && cancellation.isCancelled())
+                break;
+            R result = mapper.apply(items.get(i));
+            if (predicate.test(result))
+                results.add(result);
+        }
+        return results;
+    }
+
+    private static <T, R> List<R> runParallel(List<T> items,
+                                              Function<? super T, ? extends R> mapper,
+                                              Predicate<? super R> predicate,
+                                              @Nullable Cancellation cancellation) {
+        // split into chunks, each checks for cancellation as a sequential run
+        int chunkCount = (items.size() + CHECK_INTERVAL - 1) / CHECK_INTERVAL;
+        // a parallel stream started inside a pool runs on that pool
+        try {
+            List<R> results = pool.submit(() -> IntStream.range(0, chunkCount).parallel()
+                    .mapToObj(chunk -> runRange(items, chunk * CHECK_INTERVAL,
+                            Math.min(items.size(), (chunk + 1) * CHECK_INTERVAL),
+                            mapper, predicate, cancellation))
+                    .flatMap(List::stream)
+                    .collect(Collectors.<R>toList())
+            ).get();
+            if (cancellation != null)
+                cancellation.throwIfCancelled();
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
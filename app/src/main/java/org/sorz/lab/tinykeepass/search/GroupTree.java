@@ -0,0 +1,214 @@
+package org.sorz.lab.tinykeepass.search;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.kunzisoft.keepass.database.element.Database;
+import com.kunzisoft.keepass.database.element.Entry;
+import com.kunzisoft.keepass.database.element.Group;
+import com.kunzisoft.keepass.database.element.node.NodeId;
+
+/**
+ * Groups of a KeePass file numbered in pre-order, each with the last number
+ * of its subtree, so that a group is under another one iff its number is
+ * within the other's [number, end]. Telling whether an entry is under a
+ * group (or in the recycle bin) takes no tree walk.
+ *
+ * Built once when the file is loaded, as groups cannot be changed here.
+ */
+public class GroupTree {
+    final private Map<NodeId<?>, Integer> numbers = new HashMap<>();
+    // by number
+    final private List<Group> groups = new ArrayList<>();
+    final private int[] ends;
+    // range of the recycle bin, empty if disabled
+    final private int recycleBinStart;
+    final private int recycleBinEnd;
+
+    public GroupTree(Database keePass) {
+        this(keePass.getRootGroup(), keePass.isRecycleBinEnabled() ? keePass.getRecycleBin() : null);
+    }
+
+    /**
+     * @param root group of the tree, or null if there is no group.
+     * @param recycleBin group under root, or null if disabled.
+     */
+    GroupTree(@Nullable Group root, @Nullable Group recycleBin) {
+        List<Integer> parents = new ArrayList<>();
+        Deque<Group> pending = new ArrayDeque<>();
+        Deque<Integer> pendingParents = new ArrayDeque<>();
+        if (root != null) {
+            pending.push(root);
+            pendingParents.push(-1);
+        }
+        while (!pending.isEmpty()) {
+            Group group = pending.pop();
+            int number = groups.size();
+            groups.add(group);
+            parents.add(pendingParents.pop());
+            if (group.getNodeId() != null)
+                numbers.put(group.getNodeId(), number);
+            List<Group> children = group.getChildGroups();
+            // reversed, so that children are numbered in their order
+            for (int i = children.size() - 1; i >= 0; i--) {
+                pending.push(children.get(i));
+                pendingParents.push(number);
+            }
+        }
+        // pre-order numbers of a subtree are consecutive, count its size
+        int[] sizes = new int[groups.size()];
+        for (int number = sizes.length - 1; number >= 0; number--) {
+            sizes[number]++;
+            if (parents.get(number) >= 0)
+                sizes[parents.get(number)] += sizes[number];
+        }
+        ends = new int[sizes.length];
+        for (int number = 0; number < sizes.length; number++)
+            ends[number] = number + sizes[number] - 1;
+        Integer recycleBinNumber = recycleBin != null && recycleBin.getNodeId() != null
+                ? numbers.get(recycleBin.getNodeId()) : null;
+        recycleBinStart = recycleBinNumber != null ? recycleBinNumber : 0;
+        recycleBinEnd = recycleBinNumber != null ? ends[recycleBinNumber] : -1;
+    }
+
+    /**
+     * @return pre-order number of the entry's group, or -1 if it is not in
+     * the tree.
+     */
+    public int numberOf(Entry entry) {
+        Group parent = entry.getParent();
+        Integer number = parent != null && parent.getNodeId() != null
+                ? numbers.get(parent.getNodeId()) : null;
+        return number != null ? number : -1;
+    }
+
+    public boolean isInRecycleBin(Entry entry) {
+        return isInRecycleBin(numberOf(entry));
+    }
+
+    private boolean isInRecycleBin(int number) {
+        return recycleBinStart <= number && number <= recycleBinEnd;
+    }
+
+    /**
+     * @param title of groups, case-insensitive.
+     * @return scope of all groups (except recycle bin) with the title, which
+     * contains nothing if there is no such group.
+     */
+    public Scope scopeOf(String title) {
+        String folded = title.toLowerCase(Locale.ROOT);
+        List<Integer> matched = new ArrayList<>();
+        for (int number = 0; number < groups.size(); number++) {
+            if (isInRecycleBin(number))
+                continue;
+            String groupTitle = groups.get(number).getTitle();
+            if (groupTitle != null && groupTitle.toLowerCase(Locale.ROOT).equals(folded)) {
+                matched.add(number);
+                // nested ones with the same title are covered already
+                number = ends[number];
+            }
+        }
+        int[] starts = new int[matched.size()];
+        for (int i = 0; i < starts.length; i++)
+            starts[i] = matched.get(i);
+        return new Scope(this, folded, starts);
+    }
+
+    /**
+     * Entries under some groups of the tree, except those in the recycle
+     * bin, which may be under a scoped group (e.g. the root).
+     */
+    public static class Scope {
+        final private GroupTree tree;
+        final private String key;
+        // numbers of the groups, disjoint subtrees
+        final private int[] starts;
+
+        private Scope(GroupTree tree, String key, int[] starts) {
+            this.tree = tree;
+            this.key = key;
+            this.starts = starts;
+        }
+
+        /**
+         * @return folded title of the groups, which tells scopes of the same
+         * tree apart, e.g. in cache keys.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        public boolean isEmpty() {
+            return starts.length == 0;
+        }
+
+        public boolean contains(@Nullable Entry entry) {
+            if (entry == null)
+                return false;
+            int number = tree.numberOf(entry);
+            if (tree.isInRecycleBin(number))
+                return false;
+            for (int start : starts) {
+                if (start <= number && number <= tree.ends[start])
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return all entries under the groups, in the order of groups.
+         */
+        public List<Entry> getEntries() {
+            if (isEmpty())
+                return Collections.emptyList();
+            List<Entry> entries = new ArrayList<>();
+            for (int start : starts) {
+                for (int number = start; number <= tree.ends[start]; number++) {
+                    if (tree.isInRecycleBin(number))
+                        number = tree.recycleBinEnd;
+                    else
+                        entries.addAll(tree.groups.get(number).getChildEntries());
+                }
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * A query with its `group:Title` (or `group:"Some Title"`) qualifier
+     * taken out, if any.
+     */
+    static class ScopedQuery {
+        private static final Pattern QUALIFIER = Pattern.compile(
+                "(?:^|\\s)group:(?:\"([^\"]*)\"?|(\\S*))", Pattern.CASE_INSENSITIVE);
+
+        final String text;
+        @Nullable final String group;
+
+        private ScopedQuery(String text, @Nullable String group) {
+            this.text = text;
+            this.group = group;
+        }
+
+        static ScopedQuery parse(String query) {
+            Matcher matcher = QUALIFIER.matcher(query);
+            if (!matcher.find())
+                return new ScopedQuery(query, null);
+            String group = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+            String text = (query.substring(0, matcher.start()).trim() + " "
+                    + query.substring(matcher.end()).trim()).trim();
+            // not finished typing yet
+            return new ScopedQuery(text, group.trim().isEmpty() ? null : group);
+        }
+    }
+}
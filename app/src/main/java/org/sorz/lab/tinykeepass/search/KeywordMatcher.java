@@ -0,0 +1,167 @@
+package org.sorz.lab.tinykeepass.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Find all keywords of a query in a text with one pass over the text
+ * (Aho-Corasick), instead of one String.contains() per keyword.
+ *
+ * Built once per query, immutable, so it can be shared between threads.
+ */
+public class KeywordMatcher {
+    private static final int ROOT = 0;
+    private static final int[] NONE = new int[0];
+
+    final private List<String> keywords;
+    // goto function, labels of each state are sorted for binary search
+    final private char[][] labels;
+    final private int[][] targets;
+    final private int[] fail;
+    // keywords (their indices) ending at each state, including via fail links
+    final private int[][] outputs;
+
+    /**
+     * @param keywords lower-cased keywords. An empty keyword is found on any
+     *                 non-empty text, as String.contains() does.
+     */
+    public KeywordMatcher(List<String> keywords) {
+        this.keywords = keywords;
+        List<StringBuilder> stateLabels = new ArrayList<>();
+        List<List<Integer>> stateTargets = new ArrayList<>();
+        List<List<Integer>> stateOutputs = new ArrayList<>();
+        addState(stateLabels, stateTargets, stateOutputs);
+        for (int k = 0; k < keywords.size(); k++) {
+            String keyword = keywords.get(k);
+            int state = ROOT;
+            for (int i = 0; i < keyword.length(); i++) {
+                int next = findTarget(stateLabels.get(state), stateTargets.get(state),
+                        keyword.charAt(i));
+                if (next < 0) {
+                    next = addState(stateLabels, stateTargets, stateOutputs);
+                    stateLabels.get(state).append(keyword.charAt(i));
+                    stateTargets.get(state).add(next);
+                }
+                state = next;
+            }
+            stateOutputs.get(state).add(k);
+        }
+
+        int size = stateLabels.size();
+        labels = new char[size][];
+        targets = new int[size][];
+        for (int s = 0; s < size; s++) {
+            // sort labels with their targets
+            String label = stateLabels.get(s).toString();
+            List<Integer> target = stateTargets.get(s);
+            Integer[] order = new Integer[label.length()];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            Arrays.sort(order, (a, b) -> Character.compare(label.charAt(a), label.charAt(b)));
+            labels[s] = new char[order.length];
+            targets[s] = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                labels[s][i] = label.charAt(order[i]);
+                targets[s][i] = target.get(order[i]);
+            }
+        }
+
+        // fail links on breadth-first order, merging outputs along them
+        fail = new int[size];
+        outputs = new int[size][];
+        outputs[ROOT] = toArray(stateOutputs.get(ROOT));
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : targets[ROOT]) {
+            fail[child] = ROOT;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            List<Integer> output = stateOutputs.get(state);
+            for (int keyword : outputs[fail[state]])
+                output.add(keyword);
+            outputs[state] = toArray(output);
+            for (int i = 0; i < labels[state].length; i++) {
+                int child = targets[state][i];
+                int f = fail[state];
+                int next;
+                while ((next = step(f, labels[state][i])) < 0 && f != ROOT)
+                    f = fail[f];
+                fail[child] = next >= 0 ? next : ROOT;
+                queue.add(child);
+            }
+        }
+    }
+
+    private static int addState(List<StringBuilder> labels, List<List<Integer>> targets,
+                                List<List<Integer>> outputs) {
+        labels.add(new StringBuilder());
+        targets.add(new ArrayList<>());
+        outputs.add(new ArrayList<>());
+        return labels.size() - 1;
+    }
+
+    private static int findTarget(StringBuilder labels, List<Integer> targets, char c) {
+        for (int i = 0; i < labels.length(); i++) {
+            if (labels.charAt(i) == c)
+                return targets.get(i);
+        }
+        return -1;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        if (list.isEmpty())
+            return NONE;
+        return list.stream().mapToInt(i -> i).toArray();
+    }
+
+    /**
+     * @return the state after c from given state on the trie, or -1.
+     */
+    private int step(int state, char c) {
+        int i = Arrays.binarySearch(labels[state], c);
+        return i >= 0 ? targets[state][i] : -1;
+    }
+
+    public List<String> getKeywords() {
+        return keywords;
+    }
+
+    /**
+     * Mark keywords found on the text. Stop early once all are found.
+     * @param text case-folded text.
+     * @param found set to true for keywords found on the text, others are
+     *              left unchanged.
+     * @return number of keywords found.
+     */
+    public int find(String text, boolean[] found) {
+        if (text.isEmpty())
+            return 0;
+        int count = 0;
+        for (int keyword : outputs[ROOT]) {
+            found[keyword] = true;
+            count ++;
+        }
+        int state = ROOT;
+        for (int i = 0; i < text.length() && count < keywords.size(); i++) {
+            state = next(state, text.charAt(i));
+            for (int keyword : outputs[state]) {
+                if (!found[keyword]) {
+                    found[keyword] = true;
+                    count ++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private int next(int state, char c) {
+        int next;
+        while ((next = step(state, c)) < 0 && state != ROOT)
+            state = fail[state];
+        return next >= 0 ? next : ROOT;
+    }
+}
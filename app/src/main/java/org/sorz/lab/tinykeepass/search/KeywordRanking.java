@@ -0,0 +1,64 @@
+package org.sorz.lab.tinykeepass.search;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import com.kunzisoft.keepass.database.element.Entry;
+
+/**
+ * Rank by keywords contained in fields (see EntryQueryRelevance), narrowed
+ * down by the substring index. Suits queries typed a few letters at a time, as
+ * results of the previous query are refined.
+ *
+ * Keeps recent results of its own, so use one instance per query box, on
+ * one thread at a time.
+ */
+public class KeywordRanking implements RankingStrategy {
+    final private Comparator<Entry> tieOrder;
+    @Nullable private EntryFilter filter;
+    @Nullable private SearchEngine filterEngine;
+    private boolean allFields;
+
+    /**
+     * @param tieOrder order of entries that are equally relevant.
+     */
+    public KeywordRanking(Comparator<Entry> tieOrder) {
+        this.tieOrder = tieOrder;
+    }
+
+    /**
+     * @param allFields search large fields even if small ones already fill
+     *                  the first page of result.
+     */
+    public void setAllFields(boolean allFields) {
+        this.allFields = allFields;
+    }
+
+    /**
+     * @return which tier answered the last search.
+     */
+    public EntryFilter.Tier getLastTier() {
+        return filter != null ? filter.getLastTier() : EntryFilter.Tier.ALL_FIELDS;
+    }
+
+    @Override
+    public List<Entry> search(SearchEngine engine, String query,
+                              @Nullable GroupTree.Scope scope,
+                              @Nullable FilterExecutor.Cancellation cancellation) {
+        if (filter == null || filterEngine != engine) {
+            filter = new EntryFilter(engine.getProjection(), tieOrder, engine.getFieldWeights(),
+                    engine.getFilterCache(), engine.getGeneration());
+            filterEngine = engine;
+        }
+        // same folding as SearchableEntry
+        List<String> keywords = Arrays.asList(query.toLowerCase(Locale.ROOT).trim().split(" "));
+        // narrow down by words containing keywords if the index is ready,
+        // otherwise scan all; both find the same entries
+        return filter.filter(keywords, scope, engine.getSubstringIndexIfReady(),
+                engine.getTrigramIndexIfReady(), allFields, cancellation);
+    }
+}
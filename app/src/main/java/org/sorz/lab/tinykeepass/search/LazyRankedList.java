@@ -0,0 +1,66 @@
+package org.sorz.lab.tinykeepass.search;
+
+import org.sorz.lab.tinykeepass.search.SearchStats.Stage;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read-only list of items ranked by given order, which only sorts what
+ * is read.
+ *
+ * The first page is selected with a bounded heap on construction; the rest
+ * are sorted on the first access beyond the first page, so the first page
+ * can be shown before the whole list is copied. Not thread-safe.
+ */
+class LazyRankedList<T> extends AbstractList<T> implements RandomAccess {
+    private final List<T> items;
+    private final Comparator<? super T> order;
+    private final int[] firstPage;
+    private List<T> rest;
+
+    /**
+     * @param items to rank, kept by reference, must not be changed later.
+     * @param pageSize number of items selected on construction.
+     */
+    LazyRankedList(List<T> items, Comparator<? super T> order, int pageSize) {
+        this.items = items;
+        this.order = order;
+        long time = System.nanoTime();
+        firstPage = TopK.first(items, order, pageSize);
+        SearchStats.record(Stage.FILTER_RANK, time);
+    }
+
+    @Override
+    public T get(int index) {
+        if (index < firstPage.length)
+            return items.get(firstPage[index]);
+        if (rest == null) {
+            long time = System.nanoTime();
+            rest = sortRest();
+            SearchStats.record(Stage.FILTER_RANK, time);
+        }
+        return rest.get(index - firstPage.length);
+    }
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    private List<T> sortRest() {
+        boolean[] selected = new boolean[items.size()];
+        for (int index : firstPage)
+            selected[index] = true;
+        List<T> rest = new ArrayList<>(items.size() - firstPage.length);
+        for (int i = 0; i < items.size(); i++) {
+            if (!selected[i])
+                rest.add(items.get(i));
+        }
+        rest.sort(order);
+        return rest;
+    }
+}
@@ -0,0 +1,65 @@
+package org.sorz.lab.tinykeepass.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.kunzisoft.keepass.database.element.Entry;
+import com.kunzisoft.keepass.model.Field;
+
+/**
+ * Map Android package names to entries, for autofill on native apps.
+ *
+ * Package names are taken from androidapp:// URLs (as Keepass2Android does)
+ * and from "AndroidApp" custom fields (as KeePassDX does, also "AndroidApp_1"
+ * and so on for more than one app).
+ */
+public class PackageIndex {
+    private static final String URL_SCHEME = "androidapp://";
+    private static final String FIELD_NAME = "AndroidApp";
+
+    final private Map<String, List<Entry>> packageEntries = new HashMap<>();
+
+    /**
+     * Build a index that contains given entries.
+     * @param entries projection of entries of the KeePass file.
+     */
+    public PackageIndex(List<SearchableEntry> entries) {
+        for (SearchableEntry searchable : entries) {
+            Entry entry = searchable.getEntry();
+            if (searchable.url.startsWith(URL_SCHEME))
+                add(entry.getUrl().substring(URL_SCHEME.length()), entry);
+            for (Field field : entry.getExtraFields()) {
+                String name = field.getName();
+                if (name.equals(FIELD_NAME) || name.startsWith(FIELD_NAME + "_"))
+                    add(field.getProtectedValue().toString(), entry);
+            }
+        }
+    }
+
+    private void add(String packageName, Entry entry) {
+        packageName = packageName.trim();
+        if (packageName.endsWith("/"))
+            packageName = packageName.substring(0, packageName.length() - 1);
+        if (packageName.isEmpty())
+            return;
+        List<Entry> list = packageEntries.get(packageName);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            packageEntries.put(packageName, list);
+        }
+        if (!list.contains(entry))
+            list.add(entry);
+    }
+
+    /**
+     * @param packageName of the app to fill.
+     * @return entries for the app, in database order. Must not be modified.
+     */
+    public List<Entry> lookup(String packageName) {
+        List<Entry> list = packageEntries.get(packageName);
+        return list != null ? list : Collections.emptyList();
+    }
+}
@@ -0,0 +1,69 @@
+package org.sorz.lab.tinykeepass.search;
+
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of query results.
+ *
+ * Results are keyed by the database generation (see KeePassStorage) they
+ * were computed on. Once a newer generation is seen, all older results are
+ * dropped, since they may refer to entries of a replaced database.
+ */
+public class QueryCache<V> {
+    private final Map<String, V> results;
+    private long generation = -1;
+    private long hitCount;
+    private long missCount;
+
+    public QueryCache(int maxSize) {
+        results = new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return cached result, or null if missed.
+     */
+    public synchronized @Nullable V get(long generation, String query) {
+        V result = generation == this.generation ? results.get(query) : null;
+        if (result != null)
+            hitCount ++;
+        else
+            missCount ++;
+        return result;
+    }
+
+    public synchronized void put(long generation, String query, V result) {
+        if (generation < this.generation)
+            return;
+        if (generation > this.generation) {
+            results.clear();
+            this.generation = generation;
+        }
+        results.put(query, result);
+    }
+
+    public synchronized void clear() {
+        results.clear();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d/%d hits, %d cached", hitCount, hitCount + missCount,
+                results.size());
+    }
+}
@@ -0,0 +1,23 @@
+package org.sorz.lab.tinykeepass.search;
+
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+import com.kunzisoft.keepass.database.element.Entry;
+
+/**
+ * How a query is matched and ranked on the indexes of a SearchEngine.
+ */
+public interface RankingStrategy {
+    /**
+     * @param engine of the database to search on.
+     * @param query as the user typed, or window titles from autofill.
+     * @param scope entries out of it are skipped while matching, or null.
+     * @param cancellation to stop once the query is stale, or null.
+     * @return related entries, most relevant first. Must not be modified.
+     * @throws java.util.concurrent.CancellationException if cancelled.
+     */
+    List<Entry> search(SearchEngine engine, String query, @Nullable GroupTree.Scope scope,
+                       @Nullable FilterExecutor.Cancellation cancellation);
+}
@@ -0,0 +1,94 @@
+package org.sorz.lab.tinykeepass.search;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import com.kunzisoft.keepass.database.element.Entry;
+
+/**
+ * Search on entries of one database, for both the entry list and autofill.
+ *
+ * An engine holds the indexes of the database, which are built once per
+ * unlock and shared by all searches on it. How entries are matched and
+ * ranked is up to the RankingStrategy given to each search.
+ *
+ * A query typed on the entry list may be limited to entries under groups
+ * of a title with a `group:Title` qualifier, e.g. `group:Work mail` or
+ * `group:"Old Stuff"` (see searchScoped()).
+ *
+ * Getters without "IfReady" wait for the index if it is still being built.
+ */
+public interface SearchEngine {
+    /**
+     * Search on the query as it is, e.g. window titles from autofill, which
+     * may contain anything a page is titled.
+     * @return related entries, most relevant first. Must not be modified.
+     * @throws java.util.concurrent.CancellationException if cancelled.
+     */
+    default List<Entry> search(String query, RankingStrategy strategy,
+                               @Nullable FilterExecutor.Cancellation cancellation) {
+        return strategy.search(this, query, null, cancellation);
+    }
+
+    /**
+     * Search on a query typed by the user, which may have a group qualifier.
+     * @param order of entries if the query is a group qualifier alone.
+     * @return related entries, most relevant first. Must not be modified.
+     * @throws java.util.concurrent.CancellationException if cancelled.
+     */
+    default List<Entry> searchScoped(String query, RankingStrategy strategy,
+                                     Comparator<? super Entry> order,
+                                     @Nullable FilterExecutor.Cancellation cancellation) {
+        GroupTree.ScopedQuery scoped = GroupTree.ScopedQuery.parse(query);
+        if (scoped.group == null)
+            return strategy.search(this, query, null, cancellation);
+        GroupTree.Scope scope = getGroupTree().scopeOf(scoped.group);
+        if (scoped.text.isEmpty()) {
+            // listed like an empty query
+            List<Entry> entries = new ArrayList<>(scope.getEntries());
+            entries.sort(order);
+            return entries;
+        }
+        if (scope.isEmpty())
+            return Collections.emptyList();
+        return strategy.search(this, scoped.text, scope, cancellation);
+    }
+
+    /**
+     * @return the entry on the database, or null if there is no such one
+     * (or it is in the recycle bin).
+     */
+    @Nullable Entry getEntry(UUID entryId);
+
+    /**
+     * @return generation of the database, as the key of query caches.
+     */
+    long getGeneration();
+
+    GroupTree getGroupTree();
+
+    FieldWeights getFieldWeights();
+
+    List<SearchableEntry> getProjection();
+
+    SearchIndex getSearchIndex();
+
+    DomainIndex getDomainIndex();
+
+    PackageIndex getPackageIndex();
+
+    TrigramIndex getTrigramIndex();
+
+    @Nullable SubstringIndex getSubstringIndexIfReady();
+
+    @Nullable TrigramIndex getTrigramIndexIfReady();
+
+    QueryCache<SearchIndex.Ranking> getSearchCache();
+
+    QueryCache<List<EntryQueryRelevance>> getFilterCache();
+}
@@ -0,0 +1,74 @@
+package org.sorz.lab.tinykeepass.search;
+
+import com.kunzisoft.keepass.database.element.Entry;
+import com.kunzisoft.keepass.database.element.Group;
+import com.kunzisoft.keepass.database.element.entry.EntryKDBX;
+import com.kunzisoft.keepass.model.Field;
+
+/**
+ * Fields of entry that can be searched on.
+ *
+ * Title, username, notes and URL are always indexed. The others are extra
+ * fields, which are only extracted and indexed once a search needs them
+ * (i.e. its weight is not zero).
+ *
+ * Large fields may be kilobytes long, they are searched after the others
+ * and only if needed (see EntryFilter).
+ */
+public enum SearchField {
+    TITLE(false, false),
+    USERNAME(false, false),
+    NOTES(false, true),
+    URL(false, false),
+    // values of custom string fields, except protected ones
+    CUSTOM_FIELDS(true, true),
+    TAGS(true, false),
+    // titles of parent groups, without the root group
+    GROUP_PATH(true, false);
+
+    final boolean extra;
+    final boolean large;
+
+    SearchField(boolean extra, boolean large) {
+        this.extra = extra;
+        this.large = large;
+    }
+
+    /**
+     * @return text of the field on given entry, never null.
+     */
+    String extract(Entry entry) {
+        switch (this) {
+            case TITLE:
+                return orEmpty(entry.getTitle());
+            case USERNAME:
+                return orEmpty(entry.getUsername());
+            case NOTES:
+                return orEmpty(entry.getNotes());
+            case URL:
+                return orEmpty(entry.getUrl());
+            case CUSTOM_FIELDS:
+                StringBuilder values = new StringBuilder();
+                for (Field field : entry.getExtraFields()) {
+                    if (!field.getProtectedValue().isProtected())
+                        values.append(field.getProtectedValue()).append('\n');
+                }
+                return values.toString();
+            case TAGS:
+                EntryKDBX entryKDBX = entry.getEntryKDBX();
+                return entryKDBX != null ? orEmpty(entryKDBX.getTags()) : "";
+            case GROUP_PATH:
+                StringBuilder path = new StringBuilder();
+                for (Group group = entry.getParent();
+                     group != null && group.getParent() != null;
+                     group = group.getParent())
+                    path.insert(0, '/').insert(0, orEmpty(group.getTitle()));
+                return path.toString();
+        }
+        throw new AssertionError();
+    }
+
+    private static String orEmpty(String text) {
+        return text == null ? "" : text;
+    }
+}
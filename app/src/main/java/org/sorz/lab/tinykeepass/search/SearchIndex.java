@@ -1,29 +1,92 @@
 package org.sorz.lab.tinykeepass.search;
 
+import androidx.annotation.Nullable;
+
 import org.sorz.lab.tinykeepass.keepass.KeePassHelperKt;
+import org.sorz.lab.tinykeepass.search.SearchStats.Stage;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import com.kunzisoft.keepass.database.element.Entry;
 import com.kunzisoft.keepass.database.element.Database;
-import com.kunzisoft.keepass.database.element.node.NodeId;
 
 /**
  * Build search index from KeePass file and perform search on it.
- * Searching is based on cosine measure.
+ * Searching is ranked by Okapi BM25. Statistics it needs (IDF of tokens,
+ * length norm of entries) are computed at index time.
+ *
+ * Entries are referred by dense ordinals (their position on `entryIds`)
+ * inside the index, postings are kept as primitive arrays.
+ *
+ * Building is split over the entry list with fork-join; each worker builds
+ * its own partial index (segment) without locking, then segments are merged.
+ * Postings of extra fields are built on the same segments.
+ *
+ * Title, notes and URL are indexed together as the main document. Extra
+ * fields (see SearchField) of non-zero weight are indexed separately along
+ * with it, each scored by BM25 on its own and added with its weight.
+ *
+ * The index can be written out and read back (see writeTo()), so an
+ * unchanged database does not need to be tokenized again after unlock.
+ *
+ * An index read back is patched before it is returned: entries changed
+ * since written are removed and added again. New entries take new ordinals;
+ * removed ones are left as tombstones, skipped on search, until they are a
+ * quarter of all ordinals and the index is compacted. A published index is
+ * never changed, a changed database gets a new one (see SearchIndexCache).
  */
 public class SearchIndex {
-    final private Map<String, List<EntryFreq>> tokenIndex;
-    final private AtomicInteger totalEntry;
+    // Entries per segment that are indexed sequentially on a single worker.
+    private static final int SEGMENT_SIZE = 256;
+    // BM25 parameters, the common defaults.
+    private static final float BM25_K1 = 1.2f;
+    private static final float BM25_B = 0.75f;
+    // Number of results ranked up front by search(), enough for autofill.
+    private static final int EAGER_RESULTS = 8;
+
+    // Compact once removed entries are this fraction of all ordinals.
+    private static final int COMPACT_RATIO = 4;
+
+    // Fields below are guarded by `this` once the index is constructed.
+    final private Map<String, Postings> tokenIndex;
+    // by ordinal, null if removed
+    final private List<Entry> entries;
+    final private FieldWeights weights;
+    final private Map<SearchField, FieldIndex> fieldIndexes = new EnumMap<>(SearchField.class);
+    // arrays below may be longer than number of ordinals
+    private UUID[] entryIds;
+    private int[] entryLength;
+    private float[] entryNorm;
     private long totalToken;
+    // number of ordinals, including removed ones
+    private int size;
+    final private BitSet removed = new BitSet();
+    private int removedCount;
+    // built on the first change
+    private Map<UUID, Integer> ordinals;
+    // whether entries are changed since weights were computed
+    private boolean weightsStale;
+    // whether entries or fields are patched by readFrom()
+    private boolean patched;
 
     /**
      * Build a index that contains all entries (expect recycle bin) of
@@ -31,85 +94,848 @@ public class SearchIndex {
      * @param keePass to be included in the index.
      */
     public SearchIndex(Database keePass) {
-        tokenIndex = new HashMap<>();
-        totalEntry = new AtomicInteger();
-        KeePassHelperKt.getAllEntriesNotInRecycleBinStream(keePass)
-                .parallel()
-                .forEach(this::addEntry);
+        this(keePass, FieldWeights.DEFAULT);
+    }
+
+    /**
+     * Build a index that contains all entries (expect recycle bin) of
+     * KeePass file.
+     * @param keePass to be included in the index.
+     * @param weights of extra fields to search on.
+     */
+    public SearchIndex(Database keePass, FieldWeights weights) {
+        this(KeePassHelperKt.getAllEntriesNotInRecycleBinStream(keePass)
+                .collect(Collectors.toList()), weights, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Build a index that contains given entries.
+     * @param entries to be included in the index.
+     * @param weights of extra fields to search on.
+     * @param pool on which the index is built.
+     */
+    SearchIndex(List<Entry> entries, FieldWeights weights, ForkJoinPool pool) {
+        this.entries = new ArrayList<>(entries);
+        this.weights = weights;
+        size = entries.size();
+        entryIds = new UUID[size];
+        entryLength = new int[size];
+        entryNorm = new float[size];
+        for (SearchField field : SearchField.values()) {
+            if (field.extra && weights.isSearched(field))
+                fieldIndexes.put(field, new FieldIndex(size));
+        }
+        Segment segment = pool.invoke(new BuildTask(entries, 0, size));
+        tokenIndex = segment.tokenIndex;
+        totalToken = segment.totalToken;
+        segment.fields.forEach((field, fieldSegment) -> {
+            FieldIndex index = fieldIndexes.get(field);
+            index.tokenIndex.putAll(fieldSegment.tokenIndex);
+            index.totalToken = fieldSegment.totalToken;
+        });
+        refreshWeights();
+    }
+
+    private SearchIndex(List<Entry> entries, FieldWeights weights, UUID[] entryIds,
+                        int[] entryLength, Map<String, Postings> tokenIndex, long totalToken,
+                        Map<SearchField, FieldIndex> fieldIndexes) {
+        this.entries = entries;
+        this.weights = weights;
+        this.entryIds = entryIds;
+        this.entryLength = entryLength;
+        this.tokenIndex = tokenIndex;
+        this.totalToken = totalToken;
+        this.fieldIndexes.putAll(fieldIndexes);
+        size = entryIds.length;
+        entryNorm = new float[size];
+        // computed once the index is patched
+        weightsStale = true;
+    }
+
+    /**
+     * Index extra fields of non-zero weight that are not indexed yet, i.e.
+     * not written on the index read back.
+     */
+    private void buildFieldIndexes() {
+        for (SearchField field : SearchField.values()) {
+            if (!field.extra || !weights.isSearched(field) || fieldIndexes.containsKey(field))
+                continue;
+            FieldIndex index = new FieldIndex(size);
+            for (int i = 0; i < size; i++) {
+                Entry entry = entries.get(i);
+                if (entry != null)
+                    index.add(i, field.extract(entry));
+            }
+            fieldIndexes.put(field, index);
+        }
     }
 
     /**
-     * Search on the index with given query with cosine measure.
+     * Add an entry that is not on the index yet.
+     * @throws IllegalArgumentException if the entry is already added.
+     */
+    synchronized void addEntry(Entry entry) {
+        UUID entryId = entry.getNodeId().getId();
+        Map<UUID, Integer> ordinals = getOrdinals();
+        if (ordinals.containsKey(entryId))
+            throw new IllegalArgumentException("entry already indexed");
+        int ordinal = size++;
+        if (size > entryIds.length) {
+            int capacity = Math.max(size, entryIds.length * 3 / 2);
+            entryIds = Arrays.copyOf(entryIds, capacity);
+            entryLength = Arrays.copyOf(entryLength, capacity);
+            entryNorm = Arrays.copyOf(entryNorm, capacity);
+        }
+        ordinals.put(entryId, ordinal);
+        entries.add(entry);
+        entryIds[ordinal] = entryId;
+        // new ordinal is the largest one, appending keeps postings sorted
+        Segment segment = new Segment(tokenIndex);
+        entryLength[ordinal] = segment.addEntry(ordinal, entry);
+        totalToken += segment.totalToken;
+        fieldIndexes.forEach((field, index) -> index.add(ordinal, field.extract(entry)));
+        weightsStale = true;
+    }
+
+    /**
+     * Remove an entry, leave a tombstone on its ordinal.
+     * @return false if the entry is not on the index.
+     */
+    synchronized boolean removeEntry(UUID entryId) {
+        Integer ordinal = getOrdinals().remove(entryId);
+        if (ordinal == null)
+            return false;
+        removed.set(ordinal);
+        removedCount ++;
+        entries.set(ordinal, null);
+        totalToken -= entryLength[ordinal];
+        for (FieldIndex index : fieldIndexes.values())
+            index.totalToken -= index.lengths[ordinal];
+        weightsStale = true;
+        if (removedCount * COMPACT_RATIO >= size)
+            compact();
+        return true;
+    }
+
+    /**
+     * Index the entry again, or add it if not on the index.
+     */
+    synchronized void updateEntry(Entry entry) {
+        removeEntry(entry.getNodeId().getId());
+        addEntry(entry);
+    }
+
+    private Map<UUID, Integer> getOrdinals() {
+        if (ordinals == null) {
+            ordinals = new HashMap<>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                if (!removed.get(i))
+                    ordinals.put(entryIds[i], i);
+            }
+        }
+        return ordinals;
+    }
+
+    /**
+     * Drop tombstones, renumber the rest entries in their current order.
+     * Rankings made before keep their own copy of entry IDs.
+     */
+    private void compact() {
+        int[] renumbered = renumbering();
+        int liveCount = size - removedCount;
+        UUID[] newIds = new UUID[liveCount];
+        int[] newLength = new int[liveCount];
+        for (int i = 0; i < size; i++) {
+            if (renumbered[i] >= 0) {
+                newIds[renumbered[i]] = entryIds[i];
+                newLength[renumbered[i]] = entryLength[i];
+            }
+        }
+        entries.removeIf(Objects::isNull);
+        compactPostings(tokenIndex, renumbered);
+        for (FieldIndex index : fieldIndexes.values()) {
+            compactPostings(index.tokenIndex, renumbered);
+            int[] lengths = new int[liveCount];
+            for (int i = 0; i < size; i++) {
+                if (renumbered[i] >= 0)
+                    lengths[renumbered[i]] = index.lengths[i];
+            }
+            index.lengths = lengths;
+        }
+        entryIds = newIds;
+        entryLength = newLength;
+        entryNorm = new float[liveCount];
+        size = liveCount;
+        removed.clear();
+        removedCount = 0;
+        ordinals = null;
+        weightsStale = true;
+    }
+
+    /**
+     * @return new ordinals of entries once tombstones are dropped, -1 if removed.
+     */
+    private int[] renumbering() {
+        int[] renumbered = new int[size];
+        int liveCount = 0;
+        for (int i = 0; i < size; i++)
+            renumbered[i] = removed.get(i) ? -1 : liveCount++;
+        return renumbered;
+    }
+
+    private static void compactPostings(Map<String, Postings> index, int[] renumbered) {
+        Iterator<Postings> iterator = index.values().iterator();
+        while (iterator.hasNext()) {
+            Postings postings = iterator.next();
+            int kept = 0;
+            for (int i = 0; i < postings.size; i++) {
+                int entry = renumbered[postings.entries[i]];
+                if (entry >= 0) {
+                    postings.entries[kept] = entry;
+                    postings.frequencies[kept] = postings.frequencies[i];
+                    kept ++;
+                }
+            }
+            postings.size = kept;
+            if (kept == 0)
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Write the main and extra field indexes in a compact binary form, see
+     * readFrom(). BM25 weights are not written, they are cheap to compute again.
+     * Tombstones are skipped and the rest renumbered on the way, the index
+     * itself is left as it is.
+     */
+    public synchronized void writeTo(DataOutputStream output) throws IOException {
+        int[] renumbered = renumbering();
+        output.writeInt(size - removedCount);
+        for (int i = 0; i < size; i++) {
+            if (renumbered[i] < 0)
+                continue;
+            output.writeLong(entryIds[i].getMostSignificantBits());
+            output.writeLong(entryIds[i].getLeastSignificantBits());
+            output.writeLong(modifiedTimeOf(entries.get(i)));
+            writeVarInt(output, entryLength[i]);
+        }
+        output.writeLong(totalToken);
+        writePostings(output, tokenIndex, renumbered);
+        output.writeInt(fieldIndexes.size());
+        for (Map.Entry<SearchField, FieldIndex> field : fieldIndexes.entrySet()) {
+            FieldIndex index = field.getValue();
+            output.writeUTF(field.getKey().name());
+            for (int i = 0; i < size; i++) {
+                if (renumbered[i] >= 0)
+                    writeVarInt(output, index.lengths[i]);
+            }
+            output.writeLong(index.totalToken);
+            writePostings(output, index.tokenIndex, renumbered);
+        }
+    }
+
+    private static void writePostings(DataOutputStream output, Map<String, Postings> index,
+                                      int[] renumbered) throws IOException {
+        // tokens left only on removed entries are dropped
+        int tokenCount = 0;
+        for (Postings postings : index.values()) {
+            if (liveCountOf(postings, renumbered) > 0)
+                tokenCount ++;
+        }
+        output.writeInt(tokenCount);
+        for (Map.Entry<String, Postings> token : index.entrySet()) {
+            Postings postings = token.getValue();
+            int liveCount = liveCountOf(postings, renumbered);
+            if (liveCount == 0)
+                continue;
+            output.writeUTF(token.getKey());
+            writeVarInt(output, liveCount);
+            // ordinals are ascending, write the gaps
+            int last = 0;
+            for (int i = 0; i < postings.size; i++) {
+                int entry = renumbered[postings.entries[i]];
+                if (entry >= 0) {
+                    writeVarInt(output, entry - last);
+                    last = entry;
+                }
+            }
+            for (int i = 0; i < postings.size; i++) {
+                if (renumbered[postings.entries[i]] >= 0)
+                    writeVarInt(output, postings.frequencies[i]);
+            }
+        }
+    }
+
+    private static int liveCountOf(Postings postings, int[] renumbered) {
+        int count = 0;
+        for (int i = 0; i < postings.size; i++) {
+            if (renumbered[postings.entries[i]] >= 0)
+                count ++;
+        }
+        return count;
+    }
+
+    private static Map<String, Postings> readPostings(DataInputStream input, int entryCount)
+            throws IOException {
+        int tokenCount = input.readInt();
+        if (tokenCount < 0)
+            throw new IOException("broken tokens");
+        Map<String, Postings> index = new HashMap<>(tokenCount * 4 / 3 + 1);
+        for (int t = 0; t < tokenCount; t++) {
+            String token = input.readUTF();
+            int size = readVarInt(input);
+            if (size < 0 || size > entryCount)
+                throw new IOException("broken postings");
+            Postings postings = new Postings(size);
+            int entry = 0;
+            for (int i = 0; i < size; i++) {
+                entry += readVarInt(input);
+                if (entry >= entryCount)
+                    throw new IOException("broken postings");
+                postings.entries[i] = entry;
+            }
+            for (int i = 0; i < size; i++)
+                postings.frequencies[i] = (short) readVarInt(input);
+            postings.size = size;
+            index.put(token, postings);
+        }
+        return index;
+    }
+
+    /**
+     * Read an index written by writeTo(). Only entries that are added or
+     * modified (by last modification time) since written are tokenized, and
+     * extra fields that are searched but not written are indexed.
+     * @param keePass the index is read for.
+     * @param weights of extra fields to search on.
+     * @throws IOException if broken.
+     */
+    public static SearchIndex readFrom(DataInputStream input, Database keePass,
+                                       FieldWeights weights) throws IOException {
+        return readFrom(input, KeePassHelperKt.getAllEntriesNotInRecycleBinStream(keePass)
+                .collect(Collectors.toList()), weights);
+    }
+
+    /**
+     * Read an index written by writeTo(), patched to contain given entries.
+     * @param entries the index is read for.
+     * @param weights of extra fields to search on.
+     * @throws IOException if broken.
+     */
+    static SearchIndex readFrom(DataInputStream input, List<Entry> entries,
+                                FieldWeights weights) throws IOException {
+        Map<UUID, Entry> unindexed = new LinkedHashMap<>();
+        for (Entry entry : entries)
+            unindexed.put(entry.getNodeId().getId(), entry);
+        int entryCount = input.readInt();
+        if (entryCount < 0)
+            throw new IOException("broken entries");
+        UUID[] entryIds = new UUID[entryCount];
+        int[] entryLength = new int[entryCount];
+        List<Entry> indexed = new ArrayList<>(entryCount);
+        List<UUID> outdated = new ArrayList<>();
+        for (int i = 0; i < entryCount; i++) {
+            entryIds[i] = new UUID(input.readLong(), input.readLong());
+            long modifiedTime = input.readLong();
+            entryLength[i] = readVarInt(input);
+            Entry entry = unindexed.get(entryIds[i]);
+            if (entry != null && modifiedTime == modifiedTimeOf(entry))
+                unindexed.remove(entryIds[i]);
+            else
+                outdated.add(entryIds[i]);
+            indexed.add(entry);
+        }
+        long totalToken = input.readLong();
+        Map<String, Postings> tokenIndex = readPostings(input, entryCount);
+        Map<SearchField, FieldIndex> fieldIndexes = new EnumMap<>(SearchField.class);
+        int fieldCount = input.readInt();
+        for (int f = 0; f < fieldCount; f++) {
+            SearchField field = fieldOf(input.readUTF());
+            FieldIndex fieldIndex = new FieldIndex(entryCount);
+            for (int i = 0; i < entryCount; i++)
+                fieldIndex.lengths[i] = readVarInt(input);
+            fieldIndex.totalToken = input.readLong();
+            fieldIndex.tokenIndex.putAll(readPostings(input, entryCount));
+            // dropped if no longer searched
+            if (field.extra && weights.isSearched(field))
+                fieldIndexes.put(field, fieldIndex);
+        }
+        SearchIndex index = new SearchIndex(indexed, weights, entryIds, entryLength,
+                tokenIndex, totalToken, fieldIndexes);
+        for (UUID entryId : outdated)
+            index.removeEntry(entryId);
+        for (Entry entry : unindexed.values())
+            index.addEntry(entry);
+        index.buildFieldIndexes();
+        index.refreshWeights();
+        index.patched = !outdated.isEmpty() || !unindexed.isEmpty()
+                || index.fieldIndexes.size() != fieldCount;
+        return index;
+    }
+
+    /**
+     * @return true if the index is read by readFrom() and then patched, i.e.
+     * it differs from what was written and is worth writing again.
+     */
+    public boolean isPatched() {
+        return patched;
+    }
+
+    private static SearchField fieldOf(String name) throws IOException {
+        try {
+            return SearchField.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("unknown field " + name, e);
+        }
+    }
+
+    private static long modifiedTimeOf(Entry entry) {
+        return entry.getLastModificationTime().getDate().getTime();
+    }
+
+    private static void writeVarInt(DataOutputStream output, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            output.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("malformed varint");
+    }
+
+    /**
+     * Search on the index with given query with BM25 ranking.
+     * The first few results are selected with a bounded heap, the rest are
+     * sorted only if the stream goes beyond them.
      * @param query to search.
-     * @return matched entry UUIDs, in descending order of similarity.
+     * @return matched entry UUIDs, in descending order of relevance.
      */
     public Stream<UUID> search(String query) {
-        // calculate query vector `queryTokenWeight` $w_{q,t} = \ln(1+N/f_t)$
-        Map<String, Double> queryTokenWeight = new HashMap<>();
-        Tokenizer.parse(query)
-                .filter(tokenIndex::containsKey)
-                .collect(Collectors.groupingBy(a -> a, Collectors.counting()))
-                .forEach((token, count) ->
-                        queryTokenWeight.put(token,
-                                Math.log(1 + totalToken / numberOfEntryHasToken(token)))
-                );
-        // entryAccum<$d$, $A_d$>, $A_d = \sqrt{\sum_t{w_{d,t}\times w_{q,t}}}$
-        Map<UUID, Double> entryAccum = new HashMap<>();
-        // entryWeight<$d$, $W_d$>, $W_d = \sqrt{\sum_t{w^2_{d,t}}}$
-        Map<UUID, Double> entryWeight = new HashMap<>();
-        queryTokenWeight.forEach((token, queryWeight) ->
-            tokenIndex.get(token).forEach(entryFreq -> {
-                double accum = entryAccum.getOrDefault(entryFreq.entry, 0d);
-                double weight = 1 + Math.log(entryFreq.frequency);
-                accum += queryWeight * weight;
-                entryAccum.put(entryFreq.entry, accum);
-                entryWeight.put(entryFreq.entry,
-                        entryWeight.getOrDefault(entryFreq.entry, 0d)
-                                + weight * weight);
-            })
-        );
-        Map<UUID, Double> entryScore = new HashMap<>(entryAccum.size());
-        entryAccum.forEach((entry, accum) -> {
-            double score = accum / Math.sqrt(accum);
-            entryScore.put(entry, score);
-        });
-        return entryScore.entrySet().stream()
-                .sorted(Comparator.comparingDouble(e -> -e.getValue()))
-                .map(Map.Entry::getKey);
+        return rank(query).stream();
+    }
+
+    /**
+     * Search on the index with given query with BM25 ranking, only the best
+     * k results are selected, in O(n log k).
+     * @param query to search.
+     * @param k max number of results.
+     * @return at most k matched entry UUIDs, in descending order of relevance.
+     */
+    public Stream<UUID> search(String query, int k) {
+        return rank(query).stream(k);
+    }
+
+    /**
+     * Rank entries on given query with BM25.
+     * @param query to search.
+     * @return the ranking, which may be cached and reused for the same query
+     * as long as the index is the same one.
+     */
+    public Ranking rank(String query) {
+        return rank(query, null);
+    }
+
+    /**
+     * Rank entries on given query with BM25.
+     * @param query to search.
+     * @param scope matched entries out of it are dropped before ranking, or null.
+     * @return the ranking, which may be cached and reused for the same query
+     * and scope as long as the index is the same one.
+     */
+    public synchronized Ranking rank(String query, @Nullable GroupTree.Scope scope) {
+        if (weightsStale)
+            refreshWeights();
+        long time = System.nanoTime();
+        // query term frequencies $qtf_t$
+        Map<String, Long> queryTokens = Tokenizer.parse(query)
+                .collect(Collectors.groupingBy(a -> a, Collectors.counting()));
+        time = SearchStats.record(Stage.TOKENIZE, time);
+        // entryScore[$d$] = $\sum_f{weight_f \sum_t{qtf_t \times w_{f,d,t}}}$
+        double[] entryScore = new double[size];
+        int[] matched = new int[size];
+        int matchedCount = 0;
+        matchedCount = addScores(tokenIndex, 1, queryTokens, entryScore, matched, matchedCount);
+        for (Map.Entry<SearchField, FieldIndex> field : fieldIndexes.entrySet())
+            matchedCount = addScores(field.getValue().tokenIndex, weights.get(field.getKey()),
+                    queryTokens, entryScore, matched, matchedCount);
+        time = SearchStats.record(Stage.POSTINGS, time);
+        long[] ranked = new long[matchedCount];
+        int rankedCount = 0;
+        for (int i = 0; i < matchedCount; i++) {
+            int entry = matched[i];
+            if (scope == null || scope.contains(entries.get(entry)))
+                ranked[rankedCount++] = rankKey((float) entryScore[entry], entry);
+        }
+        if (rankedCount < matchedCount)
+            ranked = Arrays.copyOf(ranked, rankedCount);
+        SearchStats.record(Stage.SCORE, time);
+        return new Ranking(ranked);
+    }
+
+    /**
+     * Add weighted scores of an index on query tokens into entryScore.
+     * @return number of matched entries, including the new ones added to matched.
+     */
+    private static int addScores(Map<String, Postings> index, float weight,
+                                 Map<String, Long> queryTokens, double[] entryScore,
+                                 int[] matched, int matchedCount) {
+        for (Map.Entry<String, Long> queryToken : queryTokens.entrySet()) {
+            Postings postings = index.get(queryToken.getKey());
+            if (postings == null)
+                continue;
+            double queryWeight = weight * queryToken.getValue();
+            for (int i = 0; i < postings.size; i++) {
+                // zero only if removed
+                if (postings.weights[i] == 0)
+                    continue;
+                int entry = postings.entries[i];
+                if (entryScore[entry] == 0)
+                    matched[matchedCount++] = entry;
+                entryScore[entry] += queryWeight * postings.weights[i];
+            }
+        }
+        return matchedCount;
+    }
+
+    private void refreshWeights() {
+        computeWeights(tokenIndex, entryLength, totalToken, entryNorm);
+        for (FieldIndex index : fieldIndexes.values())
+            computeWeights(index.tokenIndex, index.lengths, index.totalToken, new float[size]);
+        weightsStale = false;
+    }
+
+    /**
+     * Precompute IDF of each token, length norm of each entry, and then
+     * BM25 weight of each posting, so searching only need to sum them up.
+     * Postings of removed entries get zero weight.
+     * @param entryNorm filled with length norm of each entry.
+     */
+    private void computeWeights(Map<String, Postings> tokenIndex, int[] entryLength,
+                                long totalToken, float[] entryNorm) {
+        int totalEntry = size - removedCount;
+        float averageLength = totalEntry > 0 ? (float) totalToken / totalEntry : 0;
+        // $K_d = k_1 (1 - b + b \frac{|d|}{avgdl})$
+        for (int i = 0; i < size; i++)
+            entryNorm[i] = averageLength > 0
+                    ? BM25_K1 * (1 - BM25_B + BM25_B * entryLength[i] / averageLength)
+                    : BM25_K1;
+        for (Postings postings : tokenIndex.values()) {
+            int entryCount = postings.size;
+            if (removedCount > 0) {
+                for (int i = 0; i < postings.size; i++) {
+                    if (removed.get(postings.entries[i]))
+                        entryCount --;
+                }
+            }
+            // $idf_t = \ln(1 + \frac{N - n_t + 0.5}{n_t + 0.5})$
+            postings.idf = (float) Math.log(1 + (totalEntry - entryCount + 0.5)
+                    / (entryCount + 0.5));
+            if (postings.weights == null || postings.weights.length != postings.size)
+                postings.weights = new float[postings.size];
+            for (int i = 0; i < postings.size; i++) {
+                if (removedCount > 0 && removed.get(postings.entries[i])) {
+                    postings.weights[i] = 0;
+                    continue;
+                }
+                // $w_{d,t} = idf_t \frac{tf_{d,t} (k_1 + 1)}{tf_{d,t} + K_d}$
+                int frequency = postings.frequencies[i];
+                postings.weights[i] = postings.idf * frequency * (BM25_K1 + 1)
+                        / (frequency + entryNorm[postings.entries[i]]);
+            }
+        }
+    }
+
+    /**
+     * Pack non-negative score and entry ordinal into a long, so that sorting the
+     * longs sorts entries by score without boxing.
+     */
+    private static long rankKey(float score, int entry) {
+        return ((long) Float.floatToIntBits(score) << 32) | entry;
+    }
+
+    /**
+     * Entries matched by a query in order of relevance. The first few are
+     * selected on creation, the rest are sorted on demand.
+     */
+    public class Ranking {
+        // unordered rank keys (see rankKey()) of matched entries
+        final private long[] matched;
+        final private long[] top;
+        // of ordinals at the time, the index may be compacted later
+        final private UUID[] entryIds;
+        private volatile long[] rest;
+
+        private Ranking(long[] matched) {
+            long time = System.nanoTime();
+            this.matched = matched;
+            entryIds = SearchIndex.this.entryIds;
+            top = TopK.largest(matched, matched.length, EAGER_RESULTS);
+            SearchStats.record(Stage.SORT, time);
+        }
+
+        public int size() {
+            return matched.length;
+        }
+
+        /**
+         * @return UUID of the entry at given rank, 0 for the most relevant.
+         */
+        public UUID get(int index) {
+            if (index < top.length)
+                return entryIdOf(top[index]);
+            long[] rest = rest();
+            return entryIdOf(rest[rest.length - 1 - (index - top.length)]);
+        }
+
+        /**
+         * @return all matched entry UUIDs, most relevant first.
+         */
+        public Stream<UUID> stream() {
+            Stream<UUID> topStream = LongStream.of(top).mapToObj(this::entryIdOf);
+            if (top.length == matched.length)
+                return topStream;
+            Stream<UUID> restStream = Stream.of(this).flatMap(ranking -> {
+                long[] rest = ranking.rest();
+                return IntStream.range(0, rest.length)
+                        .mapToObj(i -> entryIdOf(rest[rest.length - 1 - i]));
+            });
+            return Stream.concat(topStream, restStream);
+        }
+
+        /**
+         * @return the best k matched entry UUIDs, most relevant first.
+         */
+        public Stream<UUID> stream(int k) {
+            long[] keys = top;
+            if (k > top.length && top.length < matched.length) {
+                long time = System.nanoTime();
+                keys = TopK.largest(matched, matched.length, k);
+                SearchStats.record(Stage.SORT, time);
+            }
+            return LongStream.of(keys).limit(k).mapToObj(this::entryIdOf);
+        }
+
+        private UUID entryIdOf(long rankKey) {
+            return entryIds[(int) rankKey];
+        }
+
+        /**
+         * @return rank keys not in top, in ascending order.
+         */
+        private long[] rest() {
+            if (rest == null) {
+                long time = System.nanoTime();
+                // keys are distinct, the rest are exactly those smaller than selected ones
+                long threshold = top[top.length - 1];
+                rest = LongStream.of(matched).filter(key -> key < threshold).sorted().toArray();
+                SearchStats.record(Stage.SORT, time);
+            }
+            return rest;
+        }
     }
 
-    private void addEntry(Entry entry) {
-        totalEntry.incrementAndGet();
-        Tokenizer.parse(entry)
-                .collect(Collectors.groupingBy(a -> a, Collectors.counting()))
-                .forEach((token, count) -> addToken(token, entry, count.intValue()));
+    /**
+     * Index entries of [from, to) into a new segment, splitting the range
+     * into sub-tasks until it is small enough.
+     */
+    private class BuildTask extends RecursiveTask<Segment> {
+        final private List<Entry> entries;
+        final private int from;
+        final private int to;
+
+        BuildTask(List<Entry> entries, int from, int to) {
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Segment compute() {
+            if (to - from <= SEGMENT_SIZE) {
+                Segment segment = new Segment();
+                for (int i = from; i < to; i++) {
+                    Entry entry = entries.get(i);
+                    entryIds[i] = entry.getNodeId().getId();
+                    entryLength[i] = segment.addEntry(i, entry);
+                    for (Map.Entry<SearchField, FieldIndex> field : fieldIndexes.entrySet())
+                        field.getValue().lengths[i] = segment.field(field.getKey())
+                                .addText(i, field.getKey().extract(entry));
+                }
+                return segment;
+            }
+            int middle = (from + to) >>> 1;
+            BuildTask left = new BuildTask(entries, from, middle);
+            BuildTask right = new BuildTask(entries, middle, to);
+            right.fork();
+            Segment segment = left.compute();
+            segment.merge(right.join());
+            return segment;
+        }
     }
 
-    private synchronized void addToken(String token, Entry entry, int frequency) {
-        List<EntryFreq> entryFreqList;
-        if (tokenIndex.containsKey(token)) {
-            entryFreqList = tokenIndex.get(token);
-        } else {
-            entryFreqList = new ArrayList<>();
-            tokenIndex.put(token, entryFreqList);
+    /**
+     * Partial index of a continuous range of entries, owned by one worker.
+     */
+    static private class Segment {
+        final Map<String, Postings> tokenIndex;
+        // token frequencies of the entry being added, reused between entries
+        final private Map<String, Integer> entryTokens = new HashMap<>();
+        // postings of extra fields on the same entries
+        final Map<SearchField, Segment> fields = new EnumMap<>(SearchField.class);
+        long totalToken;
+
+        Segment() {
+            this(new HashMap<>());
+        }
+
+        /**
+         * @param tokenIndex to add entries into, whose ordinals must be larger
+         *                   than those already on it.
+         */
+        Segment(Map<String, Postings> tokenIndex) {
+            this.tokenIndex = tokenIndex;
+        }
+
+        /**
+         * @return number of tokens on the entry.
+         */
+        int addEntry(int ordinal, Entry entry) {
+            Tokenizer.parse(entry, token -> entryTokens.merge(token, 1, Integer::sum));
+            return flushEntry(ordinal);
+        }
+
+        /**
+         * @return number of tokens on the text.
+         */
+        int addText(int ordinal, String text) {
+            Tokenizer.parse(text, token -> entryTokens.merge(token, 1, Integer::sum));
+            return flushEntry(ordinal);
+        }
+
+        private int flushEntry(int ordinal) {
+            long before = totalToken;
+            entryTokens.forEach((token, count) -> addToken(token, ordinal, count));
+            entryTokens.clear();
+            return (int) (totalToken - before);
+        }
+
+        private void addToken(String token, int entry, int frequency) {
+            Postings postings = tokenIndex.get(token);
+            if (postings == null) {
+                postings = new Postings();
+                tokenIndex.put(token, postings);
+            }
+            postings.add(entry, frequency);
+            totalToken += frequency;
+        }
+
+        /**
+         * Append a segment of the following entries to this one.
+         * Postings remain sorted by ordinal.
+         */
+        void merge(Segment other) {
+            other.tokenIndex.forEach((token, postings) -> {
+                Postings merged = tokenIndex.get(token);
+                if (merged == null)
+                    tokenIndex.put(token, postings);
+                else
+                    merged.addAll(postings);
+            });
+            totalToken += other.totalToken;
+            other.fields.forEach((field, segment) -> {
+                Segment merged = fields.get(field);
+                if (merged == null)
+                    fields.put(field, segment);
+                else
+                    merged.merge(segment);
+            });
+        }
+
+        /**
+         * @return the segment of an extra field, created on first use.
+         */
+        Segment field(SearchField field) {
+            Segment segment = fields.get(field);
+            if (segment == null) {
+                segment = new Segment();
+                fields.put(field, segment);
+            }
+            return segment;
         }
-        entryFreqList.add(new EntryFreq(entry, frequency));
-        totalToken ++;
     }
 
-    private int numberOfEntryHasToken(String token) {
-        return tokenIndex.containsKey(token)
-                ? tokenIndex.get(token).size()
-                : 0;
+    /**
+     * Index of an extra field.
+     */
+    static private class FieldIndex {
+        final Map<String, Postings> tokenIndex = new HashMap<>();
+        // by ordinal, may be longer than number of ordinals
+        int[] lengths;
+        long totalToken;
+
+        FieldIndex(int capacity) {
+            lengths = new int[capacity];
+        }
+
+        void add(int ordinal, String text) {
+            if (ordinal >= lengths.length)
+                lengths = Arrays.copyOf(lengths, Math.max(ordinal + 1, lengths.length * 3 / 2));
+            Segment segment = new Segment(tokenIndex);
+            lengths[ordinal] = segment.addText(ordinal, text);
+            totalToken += segment.totalToken;
+        }
     }
 
-    static private class EntryFreq {
-        UUID entry;
-        int frequency;
+    /**
+     * Entries containing a token and the token's frequency on each of them.
+     */
+    static private class Postings {
+        private static final int INITIAL_CAPACITY = 4;
+        int[] entries;
+        short[] frequencies;
+        int size;
+        // filled by computeWeights() once all entries are added
+        float idf;
+        float[] weights;
+
+        Postings() {
+            this(INITIAL_CAPACITY);
+        }
+
+        Postings(int capacity) {
+            entries = new int[capacity];
+            frequencies = new short[capacity];
+        }
+
+        void add(int entry, int frequency) {
+            if (size == entries.length) {
+                int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+                entries = Arrays.copyOf(entries, capacity);
+                frequencies = Arrays.copyOf(frequencies, capacity);
+            }
+            entries[size] = entry;
+            frequencies[size] = (short) Math.min(frequency, Short.MAX_VALUE);
+            size ++;
+        }
 
-        EntryFreq(Entry entry, int frequency) {
-            this.entry = entry.getNodeId().getId();
-            this.frequency = frequency;
+        void addAll(Postings other) {
+            if (size + other.size > entries.length) {
+                int capacity = Math.max(size + other.size, size * 2);
+                entries = Arrays.copyOf(entries, capacity);
+                frequencies = Arrays.copyOf(frequencies, capacity);
+            }
+            System.arraycopy(other.entries, 0, entries, size, other.size);
+            System.arraycopy(other.frequencies, 0, frequencies, size, other.size);
+            size += other.size;
         }
     }
 }
@@ -0,0 +1,112 @@
+package org.sorz.lab.tinykeepass.search;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-process latency histograms of each stage of searching, to tell which
+ * part is slow on a user's vault. Recording is lock-free and cheap enough to
+ * stay on in release builds. See dump().
+ */
+public final class SearchStats {
+    public enum Stage {
+        // SearchIndex (autofill)
+        TOKENIZE,
+        POSTINGS,
+        SCORE,
+        SORT,
+        MAP_ENTRY,
+        // EntryFilter (entry list)
+        FILTER_KEYWORDS,
+        FILTER_CANDIDATES,
+        FILTER_MATCH,
+        FILTER_RANK,
+        FILTER_TOTAL,
+    }
+
+    private static final Histogram[] histograms = new Histogram[Stage.values().length];
+
+    static {
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new Histogram();
+    }
+
+    private SearchStats() {}
+
+    /**
+     * @param startNanos System.nanoTime() on the start of the stage.
+     * @return System.nanoTime() now, as the start of the next stage.
+     */
+    public static long record(Stage stage, long startNanos) {
+        long now = System.nanoTime();
+        histograms[stage.ordinal()].add(now - startNanos);
+        return now;
+    }
+
+    public static void reset() {
+        for (Histogram histogram : histograms)
+            histogram.reset();
+    }
+
+    /**
+     * @return a line for each stage that has been recorded.
+     */
+    public static String dump() {
+        StringBuilder builder = new StringBuilder("search latency (us):");
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = histograms[stage.ordinal()];
+            long count = histogram.count.get();
+            if (count == 0)
+                continue;
+            builder.append(String.format(Locale.ROOT,
+                    "%n%-17s n=%-6d mean=%-9.1f p50<%-8.1f p99<%-8.1f max=%.1f",
+                    stage, count, histogram.sum.get() / 1e3 / count,
+                    histogram.percentile(0.5) / 1e3, histogram.percentile(0.99) / 1e3,
+                    histogram.max.get() / 1e3));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Counts of durations on power-of-two buckets: bucket i holds durations
+     * in [2^(i-1), 2^i) ns.
+     */
+    static private class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(64);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+
+        void add(long nanos) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+            count.incrementAndGet();
+            sum.addAndGet(nanos);
+            long currentMax;
+            while (nanos > (currentMax = max.get()) && !max.compareAndSet(currentMax, nanos))
+                ; // retry
+        }
+
+        /**
+         * @return upper bound (ns) of the bucket the percentile falls in.
+         */
+        long percentile(double percentile) {
+            long target = (long) Math.ceil(count.get() * percentile);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= target)
+                    return 1L << i;
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++)
+                buckets.set(i, 0);
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.sorz.lab.tinykeepass.search;
+
+import org.sorz.lab.tinykeepass.keepass.KeePassHelperKt;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import com.kunzisoft.keepass.database.element.Database;
+import com.kunzisoft.keepass.database.element.Entry;
+
+/**
+ * Searchable projection of an entry: its fields are case-folded once when
+ * the database is loaded, instead of on every keystroke.
+ */
+public class SearchableEntry {
+    private final Entry entry;
+    final String title;
+    final String username;
+    final String notes;
+    final String url;
+    // folded extra fields (see SearchField), extracted on first use
+    private final String[] extra = new String[SearchField.values().length];
+
+    public SearchableEntry(Entry entry) {
+        this.entry = entry;
+        title = fold(entry.getTitle());
+        username = fold(entry.getUsername());
+        notes = fold(entry.getNotes());
+        url = fold(entry.getUrl());
+    }
+
+    /**
+     * Project all entries (expect recycle bin) of KeePass file.
+     */
+    public static List<SearchableEntry> project(Database keePass) {
+        return Collections.unmodifiableList(
+                KeePassHelperKt.getAllEntriesNotInRecycleBinStream(keePass)
+                        .map(SearchableEntry::new)
+                        .collect(Collectors.toList()));
+    }
+
+    private static String fold(String field) {
+        return field == null ? "" : field.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return case-folded text of given field.
+     */
+    String get(SearchField field) {
+        switch (field) {
+            case TITLE:
+                return title;
+            case USERNAME:
+                return username;
+            case NOTES:
+                return notes;
+            case URL:
+                return url;
+        }
+        // racing threads would extract the same text, no need to lock
+        String text = extra[field.ordinal()];
+        if (text == null) {
+            text = fold(field.extract(entry));
+            extra[field.ordinal()] = text;
+        }
+        return text;
+    }
+
+    /**
+     * @param text lower-cased text.
+     * @return whether title, username, notes or URL contains the text.
+     */
+    boolean contains(String text) {
+        return title.contains(text) || username.contains(text)
+                || notes.contains(text) || url.contains(text);
+    }
+
+    public Entry getEntry() {
+        return entry;
+    }
+}
@@ -0,0 +1,143 @@
+package org.sorz.lab.tinykeepass.search;
+
+import androidx.annotation.Nullable;
+
+import org.sorz.lab.tinykeepass.search.TermDictionary.IntList;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index words on title, username and URL of entries for type-ahead
+ * filtering, on a TermDictionary. Notes and extra fields (see SearchField) of
+ * non-zero weight are indexed on dictionaries of their own, large ones only
+ * once they are searched (see EntryFilter), so most queries never pay for them.
+ *
+ * Candidates are entries having a word that contains the keyword (or a word
+ * of it), the same substring semantics as EntryQueryRelevance, so results
+ * do not depend on whether the index is used. If a field contains the
+ * keyword, the word (run of letters and digits) around it contains each
+ * word of the keyword.
+ *
+ * Distinct words are looked up by their trigrams, so time of a lookup
+ * depends on number of words sharing a trigram with the keyword rather
+ * than number of entries. Words of one or two characters are matched by a
+ * scan over distinct words.
+ */
+public class SubstringIndex {
+    private static final int[] NO_TERMS = new int[0];
+
+    final private TermDictionary basicTerms;
+    // fields of non-zero weight that are not on basicTerms
+    final private Set<SearchField> indexedFields = EnumSet.noneOf(SearchField.class);
+    // guarded by `this`, filled on demand for large fields
+    final private Map<SearchField, TermDictionary> fieldTerms = new EnumMap<>(SearchField.class);
+
+    /**
+     * Build a index that contains given entries.
+     * @param entries projection of entries of the KeePass file.
+     * @param weights notes and extra fields of non-zero weight are indexed as well.
+     */
+    public SubstringIndex(List<SearchableEntry> entries, FieldWeights weights) {
+        this(new TermDictionary(entries), weights);
+    }
+
+    /**
+     * @param dictionary of basic fields of entries, may be shared.
+     * @param weights notes and extra fields of non-zero weight are indexed as well.
+     */
+    public SubstringIndex(TermDictionary dictionary, FieldWeights weights) {
+        basicTerms = dictionary;
+        for (SearchField field : SearchField.values()) {
+            if (!TermDictionary.isBasic(field) && weights.isSearched(field)) {
+                indexedFields.add(field);
+                if (!field.large)
+                    termsOf(field);
+            }
+        }
+    }
+
+    /**
+     * @return dictionary of the field out of basic ones, built on first use;
+     * or null if the field is not indexed.
+     */
+    private synchronized @Nullable TermDictionary termsOf(SearchField field) {
+        if (!indexedFields.contains(field))
+            return null;
+        TermDictionary terms = fieldTerms.get(field);
+        if (terms == null) {
+            terms = new TermDictionary(basicTerms.entries, new SearchField[] { field });
+            fieldTerms.put(field, terms);
+        }
+        return terms;
+    }
+
+    /**
+     * Find entries that may be related to any of keywords, that is, having a
+     * word containing (the longest word of) the keyword. All entries having
+     * a searched field containing the keyword are included.
+     * @param keywords lower-cased query keywords.
+     * @param weights notes and extra fields of non-zero weight are searched as well.
+     * @return candidate entries in index order, or null if some keyword cannot
+     * be looked up on the index (e.g. consisting of punctuations only, or a
+     * field is searched but not indexed).
+     */
+    public @Nullable List<SearchableEntry> candidates(List<String> keywords,
+                                                      FieldWeights weights) {
+        List<TermDictionary> searchedTerms = new ArrayList<>();
+        searchedTerms.add(basicTerms);
+        for (SearchField field : SearchField.values()) {
+            if (TermDictionary.isBasic(field) || !weights.isSearched(field))
+                continue;
+            TermDictionary terms = termsOf(field);
+            if (terms == null)
+                return null;
+            searchedTerms.add(terms);
+        }
+        IntList matched = new IntList();
+        for (String keyword : keywords) {
+            List<String> words = Tokenizer.words(keyword);
+            if (words.isEmpty())
+                return null;
+            String longest = words.get(0);
+            for (String word : words) {
+                if (word.length() > longest.length())
+                    longest = word;
+            }
+            for (TermDictionary terms : searchedTerms)
+                collect(terms, longest, matched);
+        }
+        return basicTerms.entriesOf(matched);
+    }
+
+    /**
+     * Add entries having a word containing given one into matched.
+     */
+    private static void collect(TermDictionary dictionary, String word, IntList matched) {
+        String[] terms = dictionary.terms;
+        if (word.length() < 3) {
+            for (int i = 0; i < terms.length; i++) {
+                if (terms[i].contains(word))
+                    matched.addAll(dictionary.postings[i]);
+            }
+            return;
+        }
+        // a containing term has all trigrams, check those of the rarest one
+        int[] candidates = null;
+        for (int j = 0; j + 3 <= word.length(); j++) {
+            int[] ids = dictionary.trigramTerms.get(word.substring(j, j + 3));
+            if (ids == null)
+                ids = NO_TERMS;
+            if (candidates == null || ids.length < candidates.length)
+                candidates = ids;
+        }
+        for (int id : candidates) {
+            if (terms[id].contains(word))
+                matched.addAll(dictionary.postings[id]);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.sorz.lab.tinykeepass.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distinct words (see Tokenizer.words()) on some fields of entries, each
+ * with the entries containing it, and the words containing each trigram.
+ *
+ * Entries are tokenized once into the dictionary, which SubstringIndex and
+ * TrigramIndex then look up in their own ways.
+ */
+public class TermDictionary {
+    // small fields that are always searched; notes are large, see SubstringIndex
+    static final SearchField[] BASIC_FIELDS = {
+            SearchField.TITLE, SearchField.USERNAME, SearchField.URL};
+    static final char PADDING = '\0';
+
+    final SearchableEntry[] entries;
+    final String[] terms;
+    // postings[i]: ordinals of entries that contain terms[i], ascending.
+    final int[][] postings;
+    final Map<String, Integer> termIds;
+    // ids of terms (of 3+ characters) having the trigram, ascending; see trigrams()
+    final Map<String, int[]> trigramTerms;
+
+    /**
+     * Build a dictionary of title, username and URL of given entries.
+     * @param entries projection of entries of the KeePass file.
+     */
+    public TermDictionary(List<SearchableEntry> entries) {
+        this(entries.toArray(new SearchableEntry[0]), BASIC_FIELDS);
+    }
+
+    TermDictionary(SearchableEntry[] entries, SearchField[] fields) {
+        this.entries = entries;
+        Map<String, IntList> termEntries = new HashMap<>();
+        for (int i = 0; i < entries.length; i++) {
+            for (SearchField field : fields) {
+                for (String word : Tokenizer.words(entries[i].get(field))) {
+                    IntList list = termEntries.get(word);
+                    if (list == null) {
+                        list = new IntList();
+                        termEntries.put(word, list);
+                    }
+                    // entries are visited in order, so only the last one can be duplicated
+                    if (list.size == 0 || list.values[list.size - 1] != i)
+                        list.add(i);
+                }
+            }
+        }
+        terms = termEntries.keySet().toArray(new String[0]);
+        postings = new int[terms.length][];
+        termIds = new HashMap<>(terms.length * 2);
+        Map<String, IntList> trigramLists = new HashMap<>();
+        for (int i = 0; i < terms.length; i++) {
+            postings[i] = termEntries.get(terms[i]).toArray();
+            termIds.put(terms[i], i);
+            if (terms[i].length() < 3)
+                continue;
+            for (String trigram : trigrams(terms[i])) {
+                IntList list = trigramLists.get(trigram);
+                if (list == null) {
+                    list = new IntList();
+                    trigramLists.put(trigram, list);
+                }
+                if (list.size == 0 || list.values[list.size - 1] != i)
+                    list.add(i);
+            }
+        }
+        trigramTerms = new HashMap<>(trigramLists.size() * 2);
+        trigramLists.forEach((trigram, list) -> trigramTerms.put(trigram, list.toArray()));
+    }
+
+    static boolean isBasic(SearchField field) {
+        for (SearchField basic : BASIC_FIELDS) {
+            if (basic == field)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return trigrams of the word padded on its start, so the first
+     * characters are weighted the same as others. Without padding on the end,
+     * a prefix of a word shares all its trigrams with the word. Those from
+     * the third one on are the plain trigrams inside the word.
+     */
+    static String[] trigrams(String word) {
+        String padded = "" + PADDING + PADDING + word;
+        String[] trigrams = new String[word.length()];
+        for (int i = 0; i < trigrams.length; i++)
+            trigrams[i] = padded.substring(i, i + 3);
+        return trigrams;
+    }
+
+    /**
+     * @param ordinals of entries, in any order, may be duplicated.
+     * @return the entries in index order.
+     */
+    List<SearchableEntry> entriesOf(IntList ordinals) {
+        int[] sorted = ordinals.toArray();
+        Arrays.sort(sorted);
+        List<SearchableEntry> list = new ArrayList<>();
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1])
+                list.add(entries[sorted[i]]);
+        }
+        return list;
+    }
+
+    static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        void addAll(int[] other) {
+            if (size + other.length > values.length)
+                values = Arrays.copyOf(values, Math.max(size + other.length, size * 2));
+            System.arraycopy(other, 0, values, size, other.length);
+            size += other.length;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
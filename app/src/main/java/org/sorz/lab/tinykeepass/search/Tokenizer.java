@@ -1,9 +1,13 @@
 package org.sorz.lab.tinykeepass.search;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import com.kunzisoft.keepass.database.element.Entry;
@@ -11,6 +15,11 @@ import kotlin.text.StringsKt;
 
 /**
  * Parse strings into tokens (a list of words).
+ *
+ * Strings are case-folded once, then scanned code point by code point:
+ *   - a run of letters, digits and underscores is a word;
+ *   - a run of CJK characters, which has no spaces between words, is
+ *     split into overlapping character bigrams.
  */
 class Tokenizer {
     final static private Set<String> IGNORE_TOKENS = Collections.unmodifiableSet(
@@ -18,28 +27,129 @@ class Tokenizer {
                     "com", "net", "org"
             ))
     );
+    // Code points below it are never CJK, skip the script lookup for them.
+    final static private int CJK_LOWEST_CODE_POINT = 0x2E80;
+    // Prolonged sound marks, of Common script but only used inside kana words.
+    final static private int PROLONGED_SOUND_MARK = 0x30FC;
+    final static private int HALFWIDTH_PROLONGED_SOUND_MARK = 0xFF70;
 
-    static private String canonicalize(String token) {
-        return token.toLowerCase();
+    /**
+     * Receive tokens found by scan(), as ranges on the scanned string.
+     */
+    interface TokenConsumer {
+        void accept(String text, int start, int end);
+    }
+
+    static private String canonicalize(String str) {
+        return str.toLowerCase(Locale.ROOT);
     }
 
     static Stream<String> parse(String str) {
-        String[] tokens = str.split("\\b");
-        return Arrays.stream(tokens)
-                .filter(s -> s.matches("\\w{2,}"))
-                .filter(s -> !IGNORE_TOKENS.contains(s))
-                .map(Tokenizer::canonicalize);
+        List<String> tokens = new ArrayList<>();
+        parse(str, tokens::add);
+        return tokens.stream();
     }
 
     static Stream<String> parse(Entry entry) {
+        List<String> tokens = new ArrayList<>();
+        parse(entry, tokens::add);
+        return tokens.stream();
+    }
+
+    static void parse(String str, Consumer<String> consumer) {
+        scan(canonicalize(str), 2, true, (text, start, end) -> {
+            String token = text.substring(start, end);
+            if (!IGNORE_TOKENS.contains(token))
+                consumer.accept(token);
+        });
+    }
+
+    static void parse(Entry entry, Consumer<String> consumer) {
         String[] str = {
                 entry.getTitle(),
                 entry.getNotes(),
                 entry.getUrl(),
         };
+        for (String s : str) {
+            if (s != null && !StringsKt.isBlank(s))
+                parse(s, consumer);
+        }
+    }
+
+    /**
+     * Split string into lower-cased words, i.e. runs of letters or digits.
+     * Unlike parse(), short and common words are kept, and each CJK character
+     * is a word by itself.
+     */
+    static List<String> words(String str) {
+        List<String> words = new ArrayList<>();
+        scan(canonicalize(str), 1, false,
+                (text, start, end) -> words.add(text.substring(start, end)));
+        return words;
+    }
+
+    /**
+     * Find tokens on case-folded text.
+     * @param minWordLength words shorter than it (in code points) are skipped.
+     * @param cjkBigram emit bigrams of CJK runs if true, otherwise single characters.
+     */
+    static void scan(String text, int minWordLength, boolean cjkBigram, TokenConsumer consumer) {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int c = text.codePointAt(i);
+            int next = i + Character.charCount(c);
+            if (isCjk(c)) {
+                if (!cjkBigram) {
+                    consumer.accept(text, i, next);
+                    i = next;
+                    continue;
+                }
+                int start = i;
+                int previous = i;
+                i = next;
+                while (i < length && isCjk(c = text.codePointAt(i))) {
+                    next = i + Character.charCount(c);
+                    consumer.accept(text, previous, next);
+                    previous = i;
+                    i = next;
+                }
+                // a lone CJK character
+                if (previous == start)
+                    consumer.accept(text, start, i);
+            } else if (isWordCharacter(c)) {
+                int start = i;
+                int count = 1;
+                i = next;
+                while (i < length && isWordCharacter(c = text.codePointAt(i)) && !isCjk(c)) {
+                    i += Character.charCount(c);
+                    count ++;
+                }
+                if (count >= minWordLength)
+                    consumer.accept(text, start, i);
+            } else {
+                i = next;
+            }
+        }
+    }
+
+    static private boolean isWordCharacter(int c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
 
-        return Arrays.stream(str)
-                .filter(t -> !StringsKt.isBlank(t))
-                .flatMap(Tokenizer::parse);
+    static private boolean isCjk(int c) {
+        if (c < CJK_LOWEST_CODE_POINT)
+            return false;
+        if (c == PROLONGED_SOUND_MARK || c == HALFWIDTH_PROLONGED_SOUND_MARK)
+            return true;
+        switch (Character.UnicodeScript.of(c)) {
+            case HAN:
+            case HIRAGANA:
+            case KATAKANA:
+            case HANGUL:
+                return true;
+            default:
+                return false;
+        }
     }
 }
@@ -0,0 +1,122 @@
+package org.sorz.lab.tinykeepass.search;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Select the best k of n items with a bounded heap in O(n log k), instead
+ * of sorting all of them.
+ */
+final class TopK {
+    private TopK() {}
+
+    /**
+     * @return the k largest of keys[0, size), in descending order.
+     */
+    static long[] largest(long[] keys, int size, int k) {
+        k = Math.min(k, size);
+        // min-heap, the smallest selected key on the root
+        long[] heap = new long[k];
+        int heapSize = 0;
+        for (int i = 0; i < size; i++) {
+            long key = keys[i];
+            if (heapSize < k) {
+                heap[heapSize] = key;
+                siftUp(heap, heapSize++);
+            } else if (k > 0 && key > heap[0]) {
+                heap[0] = key;
+                siftDown(heap, 0, k);
+            }
+        }
+        // heap sort, moving the smallest one to the end each time
+        for (int end = k - 1; end > 0; end--) {
+            long key = heap[0];
+            heap[0] = heap[end];
+            heap[end] = key;
+            siftDown(heap, 0, end);
+        }
+        return heap;
+    }
+
+    private static void siftUp(long[] heap, int i) {
+        long key = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= key)
+                break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = key;
+    }
+
+    private static void siftDown(long[] heap, int i, int size) {
+        long key = heap[i];
+        int child;
+        while ((child = 2 * i + 1) < size) {
+            if (child + 1 < size && heap[child + 1] < heap[child])
+                child ++;
+            if (key <= heap[child])
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = key;
+    }
+
+    /**
+     * @return indices of the k first items by given order, first one first.
+     */
+    static <T> int[] first(List<T> items, Comparator<? super T> order, int k) {
+        k = Math.min(k, items.size());
+        // max-heap by order, the last selected item on the root
+        int[] heap = new int[k];
+        int heapSize = 0;
+        for (int i = 0; i < items.size(); i++) {
+            if (heapSize < k) {
+                heap[heapSize] = i;
+                siftUp(items, order, heap, heapSize++);
+            } else if (k > 0 && order.compare(items.get(i), items.get(heap[0])) < 0) {
+                heap[0] = i;
+                siftDown(items, order, heap, 0, k);
+            }
+        }
+        // heap sort, moving the last one to the end each time
+        for (int end = k - 1; end > 0; end--) {
+            int index = heap[0];
+            heap[0] = heap[end];
+            heap[end] = index;
+            siftDown(items, order, heap, 0, end);
+        }
+        return heap;
+    }
+
+    private static <T> void siftUp(List<T> items, Comparator<? super T> order,
+                                   int[] heap, int i) {
+        int index = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (order.compare(items.get(heap[parent]), items.get(index)) >= 0)
+                break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = index;
+    }
+
+    private static <T> void siftDown(List<T> items, Comparator<? super T> order,
+                                     int[] heap, int i, int size) {
+        int index = heap[i];
+        int child;
+        while ((child = 2 * i + 1) < size) {
+            if (child + 1 < size &&
+                    order.compare(items.get(heap[child + 1]), items.get(heap[child])) > 0)
+                child ++;
+            if (order.compare(items.get(index), items.get(heap[child])) >= 0)
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = index;
+    }
+}
@@ -0,0 +1,161 @@
+package org.sorz.lab.tinykeepass.search;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Look up words on a TermDictionary by character trigrams, to tolerate
+ * typos (e.g. "gihtub") in queries.
+ *
+ * Words sharing enough trigrams with a query word are taken as candidates,
+ * only those are verified with a bounded edit distance. So lookup time
+ * depends on how many words share trigrams with the query, instead of the
+ * size of the database.
+ */
+public class TrigramIndex {
+    // shorter words have too few trigrams to tell typos from other words
+    private static final int MIN_WORD_LENGTH = 4;
+    // a single shared trigram says little, words sharing only one are not candidates
+    private static final int MIN_SHARED_TRIGRAMS = 2;
+    private static final int MAX_CORRECTIONS = 8;
+
+    final private TermDictionary dictionary;
+
+    /**
+     * Build a index that contains given entries.
+     * @param entries projection of entries of the KeePass file.
+     */
+    public TrigramIndex(List<SearchableEntry> entries) {
+        this(new TermDictionary(entries));
+    }
+
+    /**
+     * @param dictionary of entries, may be shared.
+     */
+    public TrigramIndex(TermDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    private static int maxDistance(int length) {
+        if (length < MIN_WORD_LENGTH)
+            return 0;
+        return length <= 6 ? 1 : 2;
+    }
+
+    /**
+     * Find words on the index that look like given one, allowing a few
+     * typos. Words starting with something like it are also included, so it
+     * works on incomplete words while typing.
+     * @param word lower-cased word.
+     * @return up to a few words, closest and most common first. Empty if the
+     * word is too short to correct.
+     */
+    public List<String> corrections(String word) {
+        int maxDistance = maxDistance(word.length());
+        if (maxDistance == 0)
+            return new ArrayList<>();
+        // word has as many (padded) trigrams as characters; each edit changes
+        // up to three of them, a transposition four. Below two the bound is
+        // useless, the two padded ones at the start are left to match then,
+        // i.e. typos on the first two characters of short words are missed.
+        int minShared = Math.max(MIN_SHARED_TRIGRAMS, word.length() - 4 * maxDistance);
+        // a prefix within maxDistance edits is at least this long
+        int minLength = word.length() - maxDistance;
+        Map<Integer, Integer> shared = new HashMap<>();
+        for (String trigram : TermDictionary.trigrams(word)) {
+            int[] ids = dictionary.trigramTerms.get(trigram);
+            if (ids != null) {
+                for (int id : ids)
+                    shared.merge(id, 1, Integer::sum);
+            }
+        }
+
+        List<long[]> matched = new ArrayList<>();
+        shared.forEach((id, count) -> {
+            if (count < minShared || dictionary.terms[id].length() < minLength)
+                return;
+            int distance = prefixDistance(word, dictionary.terms[id], maxDistance);
+            if (distance <= maxDistance)
+                matched.add(new long[] {distance, -dictionary.postings[id].length, id});
+        });
+        matched.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0])
+                : Long.compare(a[1], b[1]));
+        List<String> corrections = new ArrayList<>();
+        for (int i = 0; i < matched.size() && i < MAX_CORRECTIONS; i++)
+            corrections.add(dictionary.terms[(int) matched.get(i)[2]]);
+        return corrections;
+    }
+
+    /**
+     * Replace words that cannot be found on the index with their closest
+     * correction, if any.
+     * @return corrected text, with words separated by spaces.
+     */
+    public String correct(String text) {
+        StringBuilder builder = new StringBuilder();
+        for (String word : Tokenizer.words(text)) {
+            if (!dictionary.termIds.containsKey(word)) {
+                List<String> corrections = corrections(word);
+                if (!corrections.isEmpty())
+                    word = corrections.get(0);
+            }
+            builder.append(word).append(' ');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param words words on the index, e.g. returned by corrections().
+     * @return entries that contain any of words, in index order.
+     */
+    public List<SearchableEntry> candidates(List<String> words) {
+        TermDictionary.IntList ordinals = new TermDictionary.IntList();
+        for (String word : words) {
+            Integer id = dictionary.termIds.get(word);
+            if (id != null)
+                ordinals.addAll(dictionary.postings[id]);
+        }
+        return dictionary.entriesOf(ordinals);
+    }
+
+    /**
+     * Optimal string alignment distance (Levenshtein with transpositions of
+     * adjacent characters) between the word and the closest prefix of term.
+     * @return the distance, or anything larger than max if it exceeds max.
+     */
+    static int prefixDistance(String word, String term, int max) {
+        int m = word.length();
+        int n = Math.min(term.length(), m + max);
+        int[] before = new int[n + 1];
+        int[] previous = new int[n + 1];
+        int[] current = new int[n + 1];
+        for (int j = 0; j <= n; j++)
+            previous[j] = j;
+        for (int i = 1; i <= m; i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= n; j++) {
+                int cost = word.charAt(i - 1) == term.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1),
+                        previous[j - 1] + cost);
+                if (i > 1 && j > 1 && word.charAt(i - 1) == term.charAt(j - 2)
+                        && word.charAt(i - 2) == term.charAt(j - 1))
+                    d = Math.min(d, before[j - 2] + 1);
+                current[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            if (rowMin > max)
+                return max + 1;
+            int[] rotate = before;
+            before = previous;
+            previous = current;
+            current = rotate;
+        }
+        int distance = max + 1;
+        for (int j = Math.max(0, m - max); j <= n; j++)
+            distance = Math.min(distance, previous[j]);
+        return distance;
+    }
+}
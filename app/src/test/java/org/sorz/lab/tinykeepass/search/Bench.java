@@ -0,0 +1,104 @@
+package org.sorz.lab.tinykeepass.search;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Minimal benchmark harness for the search benchmarks, which run as plain
+ * JVM unit tests (the search code depends on Android-side classes, so it
+ * cannot be moved into a separate JMH module).
+ *
+ * Each operation is timed on its own, so latency percentiles are available
+ * next to throughput. Allocation is summed over all threads, as index
+ * building runs on a fork-join pool.
+ *
+ * Time per benchmark can be changed with -Dbenchmark.millis=N.
+ */
+final class Bench {
+    private static final long MEASURE_MILLIS = Long.getLong("benchmark.millis", 1000);
+    private static final long WARMUP_MILLIS = MEASURE_MILLIS / 2;
+    // measured even if they take longer than MEASURE_MILLIS
+    private static final int MIN_OPERATIONS = 5;
+
+    private static final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Bench() {}
+
+    static void printHeader() {
+        System.out.printf("%-36s %8s %12s %12s %12s %12s%n",
+                "benchmark", "entries", "ops/s", "p50 us", "p99 us", "bytes/op");
+    }
+
+    /**
+     * Run the operation repeatedly and print its statistics.
+     * @param size vault size, for the report only.
+     */
+    static Result run(String name, int size, Runnable operation) {
+        long deadline = System.nanoTime() + WARMUP_MILLIS * 1_000_000;
+        do {
+            operation.run();
+        } while (System.nanoTime() < deadline);
+
+        long[] samples = new long[1024];
+        int count = 0;
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        deadline = start + MEASURE_MILLIS * 1_000_000;
+        long now = start;
+        while (count < MIN_OPERATIONS || now < deadline) {
+            operation.run();
+            long end = System.nanoTime();
+            if (count == samples.length)
+                samples = Arrays.copyOf(samples, count * 2);
+            samples[count++] = end - now;
+            now = end;
+        }
+        bytes = allocatedBytes() - bytes;
+
+        Arrays.sort(samples, 0, count);
+        Result result = new Result(name, size, count * 1e9 / (now - start),
+                samples[percentileIndex(count, 0.5)], samples[percentileIndex(count, 0.99)],
+                bytes / count);
+        System.out.println(result);
+        return result;
+    }
+
+    private static int percentileIndex(int count, double percentile) {
+        return Math.min(count - 1, (int) Math.ceil(count * percentile) - 1);
+    }
+
+    private static long allocatedBytes() {
+        long total = 0;
+        for (long bytes : threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+            if (bytes > 0)
+                total += bytes;
+        }
+        return total;
+    }
+
+    static class Result {
+        final String name;
+        final int size;
+        final double throughput;
+        final long p50Nanos;
+        final long p99Nanos;
+        final long bytesPerOperation;
+
+        Result(String name, int size, double throughput, long p50Nanos, long p99Nanos,
+               long bytesPerOperation) {
+            this.name = name;
+            this.size = size;
+            this.throughput = throughput;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.bytesPerOperation = bytesPerOperation;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-36s %8d %12.1f %12.2f %12.2f %12d", name, size, throughput,
+                    p50Nanos / 1e3, p99Nanos / 1e3, bytesPerOperation);
+        }
+    }
+}
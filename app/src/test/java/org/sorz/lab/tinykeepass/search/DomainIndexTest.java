@@ -0,0 +1,51 @@
+package org.sorz.lab.tinykeepass.search;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.kunzisoft.keepass.database.element.Entry;
+
+import static org.junit.Assert.assertEquals;
+
+public class DomainIndexTest {
+    private static Entry entry(String url) {
+        Entry entry = SyntheticVault.entry(url);
+        entry.setUrl(url);
+        return entry;
+    }
+
+    private static DomainIndex index(Entry... entries) {
+        return new DomainIndex(SyntheticVault.projection(Arrays.asList(entries)));
+    }
+
+    @Test
+    public void exactHostThenParents() {
+        Entry host = entry("https://login.accounts.example.com/signin");
+        Entry parent = entry("https://accounts.example.com");
+        Entry registrable = entry("example.com");
+        DomainIndex index = index(registrable, parent, host);
+        assertEquals(Arrays.asList(host, parent, registrable),
+                index.lookup("login.accounts.example.com"));
+        assertEquals(Arrays.asList(parent, registrable), index.lookup("accounts.example.com"));
+    }
+
+    @Test
+    public void siblingsNeverMatch() {
+        Entry victim = entry("https://victim.github.io/");
+        Entry mail = entry("https://mail.example.co.uk/");
+        DomainIndex index = index(victim, mail);
+        assertEquals(Collections.emptyList(), index.lookup("attacker.github.io"));
+        assertEquals(Collections.emptyList(), index.lookup("github.io"));
+        assertEquals(Collections.emptyList(), index.lookup("www.example.co.uk"));
+        assertEquals(Collections.singletonList(victim), index.lookup("www.victim.github.io"));
+    }
+
+    @Test
+    public void publicSuffixIsNotAParent() {
+        Entry suffix = entry("https://co.uk/");
+        DomainIndex index = index(suffix);
+        assertEquals(Collections.emptyList(), index.lookup("example.co.uk"));
+    }
+}
@@ -0,0 +1,62 @@
+package org.sorz.lab.tinykeepass.search;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.kunzisoft.keepass.database.element.Entry;
+
+import static org.junit.Assert.assertEquals;
+
+public class EntryFilterTest {
+    private static final Comparator<Entry> TIE_ORDER = Comparator.comparing(Entry::getTitle);
+
+    @Test
+    public void largeFieldMatchesAreAppended() {
+        List<Entry> entries = new ArrayList<>();
+        List<Entry> notesOnly = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Entry entry = SyntheticVault.entry(String.format("%02d", i));
+            if (i % 5 == 0) {
+                // only matched on notes
+                entry.setNotes("mail");
+                notesOnly.add(entry);
+            } else {
+                entry.setTitle(entry.getTitle() + " mail");
+                // ranked higher once notes are searched
+                if (i % 2 == 0)
+                    entry.setNotes("mail");
+            }
+            entries.add(entry);
+        }
+        EntryFilter filter = new EntryFilter(SyntheticVault.projection(entries), TIE_ORDER);
+        List<String> keywords = Collections.singletonList("mail");
+
+        List<Entry> small = new ArrayList<>(filter.filter(keywords, null, null, null, false, null));
+        assertEquals(EntryFilter.Tier.SMALL_FIELDS, filter.getLastTier());
+        assertEquals(40, small.size());
+
+        List<Entry> all = filter.filter(keywords, null, null, null, true, null);
+        assertEquals(EntryFilter.Tier.ALL_FIELDS, filter.getLastTier());
+        assertEquals(small, all.subList(0, small.size()));
+        assertEquals(notesOnly, all.subList(small.size(), all.size()));
+    }
+
+    @Test
+    public void newQuerySearchesAllFieldsRanked() {
+        Entry title = SyntheticVault.entry("b mail");
+        Entry both = SyntheticVault.entry("c mail");
+        both.setNotes("mail");
+        EntryFilter filter = new EntryFilter(
+                SyntheticVault.projection(Arrays.asList(title, both)), TIE_ORDER);
+        // too few to fill the first page, all fields are searched and ranked together
+        List<Entry> result = filter.filter(
+                Collections.singletonList("mail"), null, null, null, false, null);
+        assertEquals(EntryFilter.Tier.ALL_FIELDS, filter.getLastTier());
+        assertEquals(both, result.get(0));
+    }
+}
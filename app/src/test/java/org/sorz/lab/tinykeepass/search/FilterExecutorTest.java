@@ -0,0 +1,48 @@
+package org.sorz.lab.tinykeepass.search;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FilterExecutorTest {
+    private static final List<Integer> ITEMS =
+            IntStream.range(0, 10000).boxed().collect(Collectors.toList());
+
+    @Test
+    public void mapFilter() {
+        FilterExecutor executor = new FilterExecutor();
+        // the first run is parallel on the assumed cost, later ones may not be
+        for (int run = 0; run < 3; run++) {
+            List<Integer> results = executor.mapFilter(ITEMS, i -> i * 2, i -> i % 3 == 0,
+                    new FilterExecutor.Cancellation());
+            results.sort(null);
+            assertEquals(ITEMS.stream().map(i -> i * 2).filter(i -> i % 3 == 0)
+                    .collect(Collectors.toList()), results);
+        }
+    }
+
+    @Test
+    public void cancelStopsEarly() {
+        FilterExecutor executor = new FilterExecutor();
+        FilterExecutor.Cancellation cancellation = new FilterExecutor.Cancellation();
+        AtomicInteger mapped = new AtomicInteger();
+        try {
+            executor.mapFilter(ITEMS, i -> {
+                if (mapped.incrementAndGet() == 100)
+                    cancellation.cancel();
+                return i;
+            }, i -> true, cancellation);
+            throw new AssertionError("not cancelled");
+        } catch (CancellationException e) {
+            // expected
+        }
+        assertTrue(mapped.get() < ITEMS.size());
+    }
+}
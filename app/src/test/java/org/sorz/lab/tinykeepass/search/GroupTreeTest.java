@@ -0,0 +1,72 @@
+package org.sorz.lab.tinykeepass.search;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.kunzisoft.keepass.database.element.Entry;
+import com.kunzisoft.keepass.database.element.Group;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GroupTreeTest {
+    // Root
+    // ├── Work ── Servers
+    // ├── Personal
+    // └── Recycle Bin ── Work
+    final private Group root = SyntheticVault.group(null, "Root");
+    final private Group work = SyntheticVault.group(root, "Work");
+    final private Group servers = SyntheticVault.group(work, "Servers");
+    final private Group personal = SyntheticVault.group(root, "Personal");
+    final private Group recycleBin = SyntheticVault.group(root, "Recycle Bin");
+    final private Group deletedWork = SyntheticVault.group(recycleBin, "Work");
+    final private Entry top = SyntheticVault.entry(root, "top");
+    final private Entry mail = SyntheticVault.entry(work, "mail");
+    final private Entry ssh = SyntheticVault.entry(servers, "ssh");
+    final private Entry bank = SyntheticVault.entry(personal, "bank");
+    final private Entry deleted = SyntheticVault.entry(recycleBin, "deleted");
+    final private Entry deletedMail = SyntheticVault.entry(deletedWork, "old mail");
+    final private GroupTree tree = new GroupTree(root, recycleBin);
+
+    @Test
+    public void scopeCoversSubtree() {
+        GroupTree.Scope scope = tree.scopeOf("WORK");
+        assertEquals(Arrays.asList(mail, ssh), scope.getEntries());
+        assertTrue(scope.contains(ssh));
+        assertFalse(scope.contains(bank));
+        assertFalse(scope.contains(top));
+    }
+
+    @Test
+    public void rootScopeExcludesRecycleBin() {
+        GroupTree.Scope scope = tree.scopeOf("root");
+        assertEquals(Arrays.asList(top, mail, ssh, bank), scope.getEntries());
+        assertTrue(scope.contains(bank));
+        assertFalse(scope.contains(deleted));
+        assertFalse(scope.contains(deletedMail));
+    }
+
+    @Test
+    public void recycleBinIsNotAScope() {
+        assertTrue(tree.isInRecycleBin(deletedMail));
+        assertFalse(tree.isInRecycleBin(mail));
+        assertTrue(tree.scopeOf("recycle bin").isEmpty());
+        assertEquals(Collections.emptyList(), tree.scopeOf("nothing").getEntries());
+    }
+
+    @Test
+    public void parseQualifier() {
+        GroupTree.ScopedQuery query = GroupTree.ScopedQuery.parse("mail group:\"Work Stuff\" old");
+        assertEquals("Work Stuff", query.group);
+        assertEquals("mail old", query.text);
+        query = GroupTree.ScopedQuery.parse("GROUP:work");
+        assertEquals("work", query.group);
+        assertEquals("", query.text);
+        assertNull(GroupTree.ScopedQuery.parse("mail group:").group);
+        assertNull(GroupTree.ScopedQuery.parse("mygroup:work").group);
+    }
+}
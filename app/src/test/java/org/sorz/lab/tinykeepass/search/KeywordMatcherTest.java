@@ -0,0 +1,82 @@
+package org.sorz.lab.tinykeepass.search;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class KeywordMatcherTest {
+    private static boolean[] find(List<String> keywords, String text) {
+        boolean[] found = new boolean[keywords.size()];
+        int count = new KeywordMatcher(keywords).find(text, found);
+        int expectedCount = 0;
+        for (boolean f : found) {
+            if (f)
+                expectedCount ++;
+        }
+        assertEquals(expectedCount, count);
+        return found;
+    }
+
+    // what find() should give, by String.contains()
+    private static boolean[] contains(List<String> keywords, String text) {
+        boolean[] found = new boolean[keywords.size()];
+        for (int k = 0; k < found.length; k++)
+            found[k] = !text.isEmpty() && text.contains(keywords.get(k));
+        return found;
+    }
+
+    private static String randomString(Random random, String alphabet, int maxLength) {
+        StringBuilder builder = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++)
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return builder.toString();
+    }
+
+    @Test
+    public void overlappingKeywords() {
+        List<String> keywords = Arrays.asList("he", "she", "his", "hers", "usher");
+        assertArrayEquals(new boolean[] {true, true, false, true, true},
+                find(keywords, "ushers"));
+        assertArrayEquals(new boolean[] {true, true, true, false, false},
+                find(keywords, "ahishe"));
+    }
+
+    @Test
+    public void emptyAndDuplicatedKeywords() {
+        List<String> keywords = Arrays.asList("", "ab", "ab");
+        assertArrayEquals(new boolean[] {true, true, true}, find(keywords, "cab"));
+        assertArrayEquals(new boolean[] {true, false, false}, find(keywords, "ba"));
+        // unlike String.contains(), even the empty keyword is not found on empty text
+        assertArrayEquals(new boolean[] {false, false, false}, find(keywords, ""));
+    }
+
+    @Test
+    public void nonAsciiText() {
+        List<String> keywords = Arrays.asList("银行", "行卡", "😀");
+        assertArrayEquals(new boolean[] {true, true, false}, find(keywords, "招商银行卡"));
+        assertArrayEquals(new boolean[] {false, false, true}, find(keywords, "a😀b"));
+    }
+
+    @Test
+    public void sameAsContainsOnRandomInput() {
+        Random random = new Random(42);
+        // a small alphabet so keywords share prefixes and suffixes
+        String alphabet = "abcab";
+        for (int round = 0; round < 5000; round++) {
+            List<String> keywords = new ArrayList<>();
+            int keywordCount = 1 + random.nextInt(6);
+            for (int k = 0; k < keywordCount; k++)
+                keywords.add(randomString(random, alphabet, 5));
+            String text = randomString(random, alphabet, 30);
+            assertArrayEquals(keywords + " on " + text,
+                    contains(keywords, text), find(keywords, text));
+        }
+    }
+}
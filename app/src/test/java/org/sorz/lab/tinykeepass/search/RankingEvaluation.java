@@ -0,0 +1,317 @@
+package org.sorz.lab.tinykeepass.search;
+
+import androidx.annotation.Nullable;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+import com.kunzisoft.keepass.database.element.Entry;
+import com.kunzisoft.keepass.database.element.Group;
+
+/**
+ * Relevance and latency of each RankingStrategy, by replaying labelled
+ * queries on synthetic vaults. Run it before & after changing weights or
+ * scoring, the numbers are comparable as vaults and queries are seeded.
+ *
+ * Reports per kind of query: MRR (1 / rank of the first relevant entry),
+ * recall@5 (relevant entries within the autofill candidates, out of at most
+ * 5) and the latency of a search plus reading its first 5 results. Caches
+ * are disabled, so every query is searched.
+ *
+ * Skipped unless run with `./gradlew test -Pbenchmark=true`.
+ */
+public class RankingEvaluation {
+    private static final int[] VAULT_SIZES = {100, 1_000, 10_000};
+    private static final int QUERIES_PER_KIND = 100;
+    private static final int TOP_K = 5;
+    // latency of a query is its fastest round, to filter out GC pauses
+    private static final int ROUNDS = 3;
+    private static final Comparator<Entry> TIE_ORDER = Comparator.comparing(Entry::getTitle);
+
+    private enum Kind {
+        // autofill on a page or app without known domain / package
+        WINDOW_TITLE,
+        // typed into the list filter, the title and part of the username
+        TITLE_USERNAME,
+        // a mistyped title
+        TYPO,
+        // the title limited to the entry's group, `group:Work github`
+        SCOPED,
+    }
+
+    static private class LabelledQuery {
+        final Kind kind;
+        final String query;
+        final Set<UUID> relevant;
+
+        LabelledQuery(Kind kind, String query, Set<UUID> relevant) {
+            this.kind = kind;
+            this.query = query;
+            this.relevant = relevant;
+        }
+    }
+
+    @Before
+    public void assumeBenchmarkEnabled() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void evaluateOnSyntheticVaults() {
+        System.out.printf("%-16s %-14s %8s %8s %10s %10s %10s %10s%n", "strategy", "queries",
+                "entries", "MRR", "recall@5", "p50 us", "p99 us", "max us");
+        for (int size : VAULT_SIZES) {
+            List<Entry> entries = SyntheticVault.generate(size, size);
+            SearchEngine engine = new VaultEngine(entries);
+            List<LabelledQuery> queries = label(entries, engine.getGroupTree(), new Random(size));
+            evaluate("Bm25Ranking", engine, Bm25Ranking.INSTANCE, queries, size);
+            evaluate("KeywordRanking", engine, new KeywordRanking(TIE_ORDER), queries, size);
+        }
+    }
+
+    private static void evaluate(String name, SearchEngine engine, RankingStrategy strategy,
+                                 List<LabelledQuery> queries, int size) {
+        // warm up, and take ranks while at it
+        Map<LabelledQuery, List<UUID>> results = new HashMap<>();
+        for (LabelledQuery query : queries) {
+            List<UUID> ids = new ArrayList<>();
+            for (Entry entry : engine.searchScoped(query.query, strategy, TIE_ORDER, null))
+                ids.add(entry.getNodeId().getId());
+            results.put(query, ids);
+        }
+        Map<LabelledQuery, Long> latencies = new HashMap<>();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (LabelledQuery query : queries) {
+                long start = System.nanoTime();
+                List<Entry> result = engine.searchScoped(query.query, strategy, TIE_ORDER, null);
+                for (int i = 0; i < Math.min(TOP_K, result.size()); i++)
+                    result.get(i);
+                latencies.merge(query, System.nanoTime() - start, Math::min);
+            }
+        }
+        for (Kind kind : Kind.values()) {
+            List<LabelledQuery> ofKind = new ArrayList<>();
+            for (LabelledQuery query : queries) {
+                if (query.kind == kind)
+                    ofKind.add(query);
+            }
+            report(name, kind.name(), ofKind, results, latencies, size);
+        }
+        report(name, "all", queries, results, latencies, size);
+    }
+
+    private static void report(String name, String kind, List<LabelledQuery> queries,
+                               Map<LabelledQuery, List<UUID>> results,
+                               Map<LabelledQuery, Long> latencies, int size) {
+        if (queries.isEmpty())
+            return;
+        double reciprocalRanks = 0;
+        double recalls = 0;
+        long[] nanos = new long[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            LabelledQuery query = queries.get(i);
+            List<UUID> result = results.get(query);
+            for (int rank = 0; rank < result.size(); rank++) {
+                if (query.relevant.contains(result.get(rank))) {
+                    reciprocalRanks += 1.0 / (rank + 1);
+                    break;
+                }
+            }
+            int found = 0;
+            for (UUID id : result.subList(0, Math.min(TOP_K, result.size()))) {
+                if (query.relevant.contains(id))
+                    found++;
+            }
+            recalls += (double) found / Math.min(TOP_K, query.relevant.size());
+            nanos[i] = latencies.get(query);
+        }
+        Arrays.sort(nanos);
+        int count = queries.size();
+        System.out.printf("%-16s %-14s %8d %8.3f %10.3f %10.1f %10.1f %10.1f%n",
+                name, kind, size, reciprocalRanks / count, recalls / count,
+                nanos[(count - 1) / 2] / 1e3,
+                nanos[Math.min(count - 1, (int) Math.ceil(count * 0.99) - 1)] / 1e3,
+                nanos[count - 1] / 1e3);
+    }
+
+    /**
+     * Queries for randomly picked entries, each labelled with all entries
+     * it should find: those with the same title, or also the same username
+     * if the query includes it, or also under the group if scoped.
+     */
+    private static List<LabelledQuery> label(List<Entry> entries, GroupTree tree,
+                                             Random random) {
+        Map<String, Set<UUID>> byTitle = new HashMap<>();
+        Map<String, Set<UUID>> byTitleUsername = new HashMap<>();
+        for (Entry entry : entries) {
+            UUID id = entry.getNodeId().getId();
+            String title = entry.getTitle().toLowerCase();
+            byTitle.computeIfAbsent(title, k -> new HashSet<>()).add(id);
+            byTitleUsername.computeIfAbsent(title + "\n" + entry.getUsername().toLowerCase(),
+                    k -> new HashSet<>()).add(id);
+        }
+        List<LabelledQuery> queries = new ArrayList<>();
+        for (Kind kind : Kind.values()) {
+            int count = 0;
+            while (count < QUERIES_PER_KIND) {
+                Entry entry = entries.get(random.nextInt(entries.size()));
+                String title = entry.getTitle();
+                Set<UUID> sameTitle = byTitle.get(title.toLowerCase());
+                switch (kind) {
+                    case WINDOW_TITLE:
+                        queries.add(new LabelledQuery(kind, title + " - Sign in", sameTitle));
+                        break;
+                    case TITLE_USERNAME:
+                        String username = entry.getUsername();
+                        String typed = username.substring(0, Math.min(username.length(),
+                                4 + random.nextInt(4)));
+                        queries.add(new LabelledQuery(kind, title + " " + typed, byTitleUsername.get(
+                                title.toLowerCase() + "\n" + username.toLowerCase())));
+                        break;
+                    case TYPO:
+                        String typo = typo(title, random);
+                        if (typo == null)
+                            continue;
+                        queries.add(new LabelledQuery(kind, typo, sameTitle));
+                        break;
+                    case SCOPED:
+                        String group = entry.getParent().getTitle();
+                        GroupTree.Scope scope = tree.scopeOf(group);
+                        Set<UUID> inScope = new HashSet<>();
+                        for (Entry other : scope.getEntries()) {
+                            if (sameTitle.contains(other.getNodeId().getId()))
+                                inScope.add(other.getNodeId().getId());
+                        }
+                        queries.add(new LabelledQuery(kind,
+                                "group:\"" + group + "\" " + title, inScope));
+                        break;
+                }
+                count++;
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * @return title with one letter of its first word replaced, or null if
+     * the word is too short (or not Latin) to be corrected.
+     */
+    private static @Nullable String typo(String title, Random random) {
+        int wordEnd = title.indexOf(' ');
+        if (wordEnd < 0)
+            wordEnd = title.length();
+        if (wordEnd < 5 || !title.substring(0, wordEnd).matches("[A-Za-z]+"))
+            return null;
+        int position = 1 + random.nextInt(wordEnd - 1);
+        char replaced = title.charAt(position) == 'z' ? 'y' : (char) (title.charAt(position) + 1);
+        return title.substring(0, position) + replaced + title.substring(position + 1);
+    }
+
+    /**
+     * Engine on a list of entries, with indexes built up front and caches
+     * that keep nothing.
+     */
+    static private class VaultEngine implements SearchEngine {
+        final private Map<UUID, Entry> entries = new HashMap<>();
+        final private GroupTree groupTree;
+        final private List<SearchableEntry> projection = new ArrayList<>();
+        final private SearchIndex searchIndex;
+        final private DomainIndex domainIndex;
+        final private PackageIndex packageIndex;
+        final private SubstringIndex substringIndex;
+        final private TrigramIndex trigramIndex;
+
+        VaultEngine(List<Entry> entries) {
+            for (Entry entry : entries) {
+                this.entries.put(entry.getNodeId().getId(), entry);
+                projection.add(new SearchableEntry(entry));
+            }
+            Group root = SyntheticVault.rootOf(entries);
+            groupTree = new GroupTree(root, SyntheticVault.recycleBinOf(root));
+            searchIndex = new SearchIndex(entries, FieldWeights.DEFAULT, ForkJoinPool.commonPool());
+            domainIndex = new DomainIndex(projection);
+            packageIndex = new PackageIndex(projection);
+            TermDictionary dictionary = new TermDictionary(projection);
+            substringIndex = new SubstringIndex(dictionary, FieldWeights.DEFAULT);
+            trigramIndex = new TrigramIndex(dictionary);
+        }
+
+        @Override
+        public @Nullable Entry getEntry(UUID entryId) {
+            return entries.get(entryId);
+        }
+
+        @Override
+        public long getGeneration() {
+            return 0;
+        }
+
+        @Override
+        public GroupTree getGroupTree() {
+            return groupTree;
+        }
+
+        @Override
+        public FieldWeights getFieldWeights() {
+            return FieldWeights.DEFAULT;
+        }
+
+        @Override
+        public List<SearchableEntry> getProjection() {
+            return projection;
+        }
+
+        @Override
+        public SearchIndex getSearchIndex() {
+            return searchIndex;
+        }
+
+        @Override
+        public DomainIndex getDomainIndex() {
+            return domainIndex;
+        }
+
+        @Override
+        public PackageIndex getPackageIndex() {
+            return packageIndex;
+        }
+
+        @Override
+        public TrigramIndex getTrigramIndex() {
+            return trigramIndex;
+        }
+
+        @Override
+        public @Nullable SubstringIndex getSubstringIndexIfReady() {
+            return substringIndex;
+        }
+
+        @Override
+        public @Nullable TrigramIndex getTrigramIndexIfReady() {
+            return trigramIndex;
+        }
+
+        @Override
+        public QueryCache<SearchIndex.Ranking> getSearchCache() {
+            return new QueryCache<>(0);
+        }
+
+        @Override
+        public QueryCache<List<EntryQueryRelevance>> getFilterCache() {
+            return new QueryCache<>(0);
+        }
+    }
+}
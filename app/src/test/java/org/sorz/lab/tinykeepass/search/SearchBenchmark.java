@@ -0,0 +1,102 @@
+package org.sorz.lab.tinykeepass.search;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.kunzisoft.keepass.database.element.Entry;
+
+/**
+ * Throughput, latency and allocation of tokenizing, SearchIndex building,
+ * patching & searching, and EntryQueryRelevance filtering on synthetic vaults.
+ *
+ * Skipped unless run with `./gradlew test -Pbenchmark=true`.
+ */
+public class SearchBenchmark {
+    private static final int[] VAULT_SIZES = {100, 1_000, 10_000, 100_000};
+    private static final int QUERIES = 64;
+    private static final Comparator<Entry> TIE_ORDER = Comparator.comparing(Entry::getTitle);
+
+    @Before
+    public void assumeBenchmarkEnabled() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void searchOnSyntheticVaults() {
+        Bench.printHeader();
+        for (int size : VAULT_SIZES) {
+            List<Entry> entries = SyntheticVault.generate(size, size);
+            List<SearchableEntry> projection = SyntheticVault.projection(entries);
+            List<String> queries = queries(entries, new Random(size));
+
+            int[] next = {0};
+            Bench.run("Tokenizer.parse(entry)", size, () ->
+                    Tokenizer.parse(entries.get(next[0]++ % size), token -> {}));
+
+            Bench.run("SearchIndex.<init>", size, () ->
+                    new SearchIndex(entries, FieldWeights.DEFAULT, ForkJoinPool.commonPool()));
+
+            SearchIndex index = new SearchIndex(entries, FieldWeights.DEFAULT,
+                    ForkJoinPool.commonPool());
+            Bench.run("SearchIndex.search(query, 5)", size, () ->
+                    index.search(queries.get(next[0]++ % QUERIES), 5).count());
+
+            // as after a sync that changed a few entries, weights are refreshed on search
+            Bench.run("SearchIndex.updateEntry x3 + search", size, () -> {
+                for (int i = 0; i < 3; i++)
+                    index.updateEntry(entries.get(next[0]++ % size));
+                index.search(queries.get(next[0] % QUERIES), 5).count();
+            });
+
+            Bench.run("EntryQueryRelevance (all entries)", size, () -> {
+                List<String> keywords = keywords(queries.get(next[0]++ % QUERIES));
+                KeywordMatcher matcher = new KeywordMatcher(keywords);
+                projection.stream()
+                        .map(e -> new EntryQueryRelevance(e, matcher, FieldWeights.DEFAULT))
+                        .filter(EntryQueryRelevance::isRelated)
+                        .count();
+            });
+
+            SubstringIndex substringIndex = new SubstringIndex(projection, FieldWeights.DEFAULT);
+            Bench.run("EntryFilter.filter", size, () ->
+                    new EntryFilter(projection, TIE_ORDER).filter(
+                            keywords(queries.get(next[0]++ % QUERIES)),
+                            null, substringIndex, null, false, null).size());
+        }
+    }
+
+    /**
+     * Queries as the app sees them: window titles from autofill, and partial
+     * words typed into the list filter.
+     */
+    private static List<String> queries(List<Entry> entries, Random random) {
+        List<String> queries = new ArrayList<>(QUERIES);
+        while (queries.size() < QUERIES) {
+            Entry entry = entries.get(random.nextInt(entries.size()));
+            String title = entry.getTitle();
+            switch (random.nextInt(3)) {
+                case 0:
+                    queries.add(title + " - Sign in");
+                    break;
+                case 1:
+                    queries.add(title.substring(0, Math.min(title.length(), 2 + random.nextInt(4))));
+                    break;
+                default:
+                    queries.add(title + " " + entry.getUsername());
+            }
+        }
+        return queries;
+    }
+
+    private static List<String> keywords(String query) {
+        return Arrays.asList(query.toLowerCase().trim().split(" "));
+    }
+}
@@ -0,0 +1,43 @@
+package org.sorz.lab.tinykeepass.search;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import com.kunzisoft.keepass.database.element.Entry;
+
+/**
+ * Time for building SearchIndex with different number of workers.
+ *
+ * Skipped unless run with `./gradlew test -Pbenchmark=true`.
+ */
+public class SearchIndexBuildBenchmark {
+    private static final int[] VAULT_SIZES = {1_000, 10_000, 50_000};
+
+    @Before
+    public void assumeBenchmarkEnabled() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void buildScalesWithCores() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        Bench.printHeader();
+        for (int size : VAULT_SIZES) {
+            List<Entry> entries = SyntheticVault.generate(size, size);
+            double sequential = 0;
+            for (int workers = 1; workers <= cores; workers *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(workers);
+                Bench.Result result = Bench.run("build, " + workers + " workers", size, () ->
+                        new SearchIndex(entries, FieldWeights.DEFAULT, pool));
+                pool.shutdown();
+                if (workers == 1)
+                    sequential = result.p50Nanos;
+                System.out.printf("  speedup %.2fx%n", sequential / result.p50Nanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.sorz.lab.tinykeepass.search;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import com.kunzisoft.keepass.database.element.DateInstant;
+import com.kunzisoft.keepass.database.element.Entry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SearchIndexTest {
+    private static final String[] QUERIES = {
+            "github", "google mail", "password", "bank card", "ssh server", "淘宝", "admin",
+    };
+
+    private static List<UUID> search(SearchIndex index, String query) {
+        return index.search(query).collect(Collectors.toList());
+    }
+
+    private static byte[] write(SearchIndex index) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(buffer));
+        return buffer.toByteArray();
+    }
+
+    private static SearchIndex read(byte[] written, List<Entry> entries) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(written));
+        return SearchIndex.readFrom(input, entries, FieldWeights.DEFAULT);
+    }
+
+    @Test
+    public void removeAndCompact() {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 8; i++)
+            entries.add(SyntheticVault.entry("mail " + (10 + i)));
+        SearchIndex index = SyntheticVault.index(entries);
+        UUID first = entries.get(0).getNodeId().getId();
+        assertTrue(index.removeEntry(first));
+        assertFalse(index.removeEntry(first));
+        assertEquals(7, search(index, "mail").size());
+        assertFalse(search(index, "mail").contains(first));
+
+        // a quarter of ordinals are removed, compacted
+        assertTrue(index.removeEntry(entries.get(5).getNodeId().getId()));
+        assertEquals(6, search(index, "mail").size());
+        assertEquals(Collections.singletonList(entries.get(3).getNodeId().getId()),
+                search(index, "13"));
+        assertEquals(Collections.emptyList(), search(index, "15"));
+    }
+
+    @Test
+    public void addAndUpdate() {
+        List<Entry> entries = new ArrayList<>(
+                Arrays.asList(SyntheticVault.entry("mail"), SyntheticVault.entry("bank")));
+        SearchIndex index = SyntheticVault.index(entries);
+        Entry added = SyntheticVault.entry("mail backup");
+        index.addEntry(added);
+        assertEquals(Arrays.asList(entries.get(0).getNodeId().getId(), added.getNodeId().getId()),
+                search(index, "mail"));
+        try {
+            index.addEntry(added);
+            throw new AssertionError("added twice");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        added.setTitle("bank backup");
+        index.updateEntry(added);
+        assertEquals(Collections.singletonList(entries.get(0).getNodeId().getId()),
+                search(index, "mail"));
+        assertEquals(2, search(index, "bank").size());
+    }
+
+    @Test
+    public void roundTripKeepsRanking() throws IOException {
+        List<Entry> entries = SyntheticVault.generate(500, 1);
+        SearchIndex index = SyntheticVault.index(entries);
+        SearchIndex read = read(write(index), entries);
+        for (String query : QUERIES)
+            assertEquals(query, search(index, query), search(read, query));
+    }
+
+    @Test
+    public void writeSkipsTombstones() throws IOException {
+        List<Entry> entries = SyntheticVault.generate(500, 4);
+        SearchIndex index = SyntheticVault.index(entries);
+        List<Entry> kept = new ArrayList<>(entries);
+        for (int i = 0; i < 10; i++)
+            assertTrue(index.removeEntry(kept.remove(i * 7).getNodeId().getId()));
+        List<List<UUID>> before = new ArrayList<>();
+        for (String query : QUERIES)
+            before.add(search(index, query));
+
+        SearchIndex read = read(write(index), kept);
+        assertFalse(read.isPatched());
+        for (int i = 0; i < QUERIES.length; i++) {
+            // the index written out is left as it is
+            assertEquals(QUERIES[i], before.get(i), search(index, QUERIES[i]));
+            assertEquals(QUERIES[i], before.get(i), search(read, QUERIES[i]));
+        }
+    }
+
+    @Test
+    public void readPatchesChangedEntries() throws IOException {
+        List<Entry> entries = SyntheticVault.generate(500, 2);
+        byte[] written = write(SyntheticVault.index(entries));
+
+        List<Entry> changed = new ArrayList<>(entries.subList(50, entries.size()));
+        changed.addAll(SyntheticVault.generate(20, 3));
+        Entry modified = changed.get(0);
+        modified.setTitle("renamed github admin");
+        modified.setLastModificationTime(new DateInstant(new Date(1000)));
+
+        SearchIndex read = read(written, changed);
+        SearchIndex fresh = SyntheticVault.index(changed);
+        for (String query : QUERIES) {
+            // equally relevant entries may be ordered differently
+            List<UUID> expected = search(fresh, query);
+            List<UUID> actual = search(read, query);
+            assertEquals(query, expected.size(), actual.size());
+            assertEquals(query, new HashSet<>(expected), new HashSet<>(actual));
+        }
+        assertEquals(Collections.singletonList(modified.getNodeId().getId()),
+                search(read, "renamed"));
+    }
+}
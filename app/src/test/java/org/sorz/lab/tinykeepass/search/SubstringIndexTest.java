@@ -0,0 +1,97 @@
+package org.sorz.lab.tinykeepass.search;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.kunzisoft.keepass.database.element.Entry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SubstringIndexTest {
+    private static List<Entry> related(List<SearchableEntry> entries, List<String> keywords,
+                                       FieldWeights weights) {
+        List<Entry> related = new ArrayList<>();
+        for (SearchableEntry entry : entries) {
+            EntryQueryRelevance relevance = new EntryQueryRelevance(entry, keywords, weights);
+            if (relevance.isRelated())
+                related.add(entry.getEntry());
+        }
+        return related;
+    }
+
+    @Test
+    public void findsSubstringsInsideWords() {
+        List<SearchableEntry> projection = SyntheticVault.projection(
+                Collections.singletonList(SyntheticVault.entry("GitHub")));
+        SubstringIndex index = new SubstringIndex(projection, FieldWeights.DEFAULT);
+        for (String keyword : Arrays.asList("hub", "it", "b", "github"))
+            assertEquals(keyword, 1, index.candidates(
+                    Collections.singletonList(keyword), FieldWeights.DEFAULT).size());
+        assertEquals(0, index.candidates(
+                Collections.singletonList("gitlab"), FieldWeights.DEFAULT).size());
+    }
+
+    @Test
+    public void notesOnlyOnAllFields() {
+        Entry title = SyntheticVault.entry("Backup codes");
+        Entry notes = SyntheticVault.entry("GitHub");
+        notes.setNotes("backup codes inside");
+        SubstringIndex index = new SubstringIndex(
+                SyntheticVault.projection(Arrays.asList(title, notes)), FieldWeights.DEFAULT);
+        List<String> keywords = Collections.singletonList("backup");
+        assertEquals(1, index.candidates(keywords,
+                FieldWeights.DEFAULT.withoutLargeFields()).size());
+        assertEquals(2, index.candidates(keywords, FieldWeights.DEFAULT).size());
+    }
+
+    @Test
+    public void punctuationOnlyScansAll() {
+        SubstringIndex index = new SubstringIndex(
+                SyntheticVault.projection(SyntheticVault.generate(10, 1)), FieldWeights.DEFAULT);
+        assertNull(index.candidates(Collections.singletonList("@."), FieldWeights.DEFAULT));
+    }
+
+    @Test
+    public void sameResultAsFullScan() {
+        List<SearchableEntry> projection =
+                SyntheticVault.projection(SyntheticVault.generate(500, 7));
+        SubstringIndex index = new SubstringIndex(projection, FieldWeights.DEFAULT);
+        FieldWeights weights = FieldWeights.DEFAULT.withoutLargeFields();
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            // a random piece of some field, possibly across words
+            SearchableEntry entry = projection.get(random.nextInt(projection.size()));
+            String field = random.nextBoolean() ? entry.title : entry.url;
+            if (field.isEmpty())
+                continue;
+            int start = random.nextInt(field.length());
+            int end = Math.min(field.length(), start + 1 + random.nextInt(8));
+            List<String> keywords = Collections.singletonList(field.substring(start, end));
+
+            List<SearchableEntry> candidates = index.candidates(keywords, weights);
+            if (candidates == null)
+                continue;
+            assertEquals(keywords.toString(), related(projection, keywords, weights),
+                    related(candidates, keywords, weights));
+        }
+    }
+
+    @Test
+    public void anyKeywordIsCandidate() {
+        List<SearchableEntry> projection =
+                SyntheticVault.projection(SyntheticVault.generate(200, 3));
+        SubstringIndex index = new SubstringIndex(projection, FieldWeights.DEFAULT);
+        List<String> keywords = Arrays.asList("hub", "user1");
+        List<SearchableEntry> candidates = index.candidates(keywords, FieldWeights.DEFAULT);
+        assertNotNull(candidates);
+        assertEquals(related(projection, keywords, FieldWeights.DEFAULT),
+                related(candidates, keywords, FieldWeights.DEFAULT));
+    }
+}
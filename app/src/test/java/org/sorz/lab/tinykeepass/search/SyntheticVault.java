@@ -0,0 +1,196 @@
+package org.sorz.lab.tinykeepass.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.kunzisoft.keepass.database.element.Entry;
+import com.kunzisoft.keepass.database.element.Group;
+import com.kunzisoft.keepass.database.element.entry.EntryKDBX;
+import com.kunzisoft.keepass.database.element.group.GroupKDBX;
+
+/**
+ * Generate entries that look like a real vault, for benchmarks.
+ * Same seed always give the same entries.
+ *
+ * Entries are put in a small tree of groups under ROOT, which also has a
+ * recycle bin with a few deleted entries that are not returned.
+ *
+ * Tests build their own entries, groups and indexes with helpers here too.
+ */
+class SyntheticVault {
+    static final String ROOT = "Root";
+    static final String RECYCLE_BIN = "Recycle Bin";
+    // title of each group, nested ones after their parent's title
+    static final String[][] GROUPS = {
+            {"Work", "Servers", "Old"}, {"Personal"}, {"Finance"}, {"Social"},
+            {"Development", "Servers"},
+    };
+
+    private static final String[] SERVICES = {
+            "github", "gitlab", "google", "microsoft", "amazon", "apple", "facebook",
+            "twitter", "linkedin", "dropbox", "paypal", "netflix", "spotify", "steam",
+            "reddit", "slack", "zoom", "adobe", "ebay", "alibaba", "taobao", "weibo",
+            "baidu", "bilibili", "zhihu", "jd", "icloud", "outlook", "yahoo", "proton",
+            "digitalocean", "cloudflare", "heroku", "atlassian", "jira", "notion",
+    };
+    private static final String[] CJK_TITLES = {
+            "淘宝", "支付宝", "中国银行", "招商银行", "微信", "网易邮箱", "京东商城",
+            "哔哩哔哩", "百度网盘", "知乎", "楽天市場", "ヤフー", "네이버", "카카오톡",
+    };
+    private static final String[] QUALIFIERS = {
+            "work", "personal", "old", "admin", "test", "backup", "family", "shared",
+    };
+    private static final String[] SUBDOMAINS = {
+            "", "", "", "www.", "login.", "accounts.", "mail.", "console.",
+    };
+    private static final String[] SUFFIXES = {
+            "com", "com", "com", "net", "org", "io", "co.uk", "com.cn", "de",
+    };
+    private static final String[] PATHS = {
+            "", "", "/login", "/signin", "/account", "/auth/login?next=%2F",
+    };
+    private static final String[] WORDS = {
+            "account", "password", "recovery", "code", "question", "answer", "pin",
+            "backup", "security", "key", "token", "api", "server", "host", "port",
+            "the", "for", "and", "with", "this", "that", "use", "old", "new", "main",
+            "email", "phone", "address", "bank", "card", "number", "expire", "vpn",
+            "ssh", "database", "production", "staging", "note", "remember", "change",
+    };
+
+    private SyntheticVault() {}
+
+    static List<Entry> generate(int size, long seed) {
+        Random random = new Random(seed);
+        List<Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            entries.add(entry(random, i));
+
+        // a separate random, so entries are the same as without groups
+        Random groupRandom = new Random(~seed);
+        Group root = group(null, ROOT);
+        List<Group> groups = new ArrayList<>();
+        groups.add(root);
+        for (String[] titles : GROUPS) {
+            Group group = group(root, titles[0]);
+            groups.add(group);
+            for (int i = 1; i < titles.length; i++)
+                groups.add(group(group, titles[i]));
+        }
+        for (Entry entry : entries)
+            addEntry(groups.get(groupRandom.nextInt(groups.size())), entry);
+        Group recycleBin = group(root, RECYCLE_BIN);
+        Group deletedGroup = group(recycleBin, GROUPS[0][0]);
+        for (int i = 0; i < size / 20; i++)
+            addEntry(groupRandom.nextBoolean() ? recycleBin : deletedGroup, entry(groupRandom, i));
+        return entries;
+    }
+
+    /**
+     * @return root group of generated entries.
+     */
+    static Group rootOf(List<Entry> entries) {
+        Group group = entries.get(0).getParent();
+        while (group.getParent() != null)
+            group = group.getParent();
+        return group;
+    }
+
+    static Group recycleBinOf(Group root) {
+        for (Group group : root.getChildGroups()) {
+            if (group.getTitle().equals(RECYCLE_BIN))
+                return group;
+        }
+        throw new IllegalArgumentException("no recycle bin");
+    }
+
+    /**
+     * @return a new entry of given title, without any parent group.
+     */
+    static Entry entry(String title) {
+        Entry entry = new Entry(new EntryKDBX());
+        entry.setTitle(title);
+        return entry;
+    }
+
+    /**
+     * @return a new entry of given title, added to the group.
+     */
+    static Entry entry(Group parent, String title) {
+        Entry entry = entry(title);
+        addEntry(parent, entry);
+        return entry;
+    }
+
+    /**
+     * @param parent the new group is added to, or null.
+     */
+    static Group group(Group parent, String title) {
+        Group group = new Group(new GroupKDBX());
+        group.setTitle(title);
+        if (parent != null) {
+            group.setParent(parent);
+            parent.addChildGroup(group);
+        }
+        return group;
+    }
+
+    private static void addEntry(Group group, Entry entry) {
+        entry.setParent(group);
+        group.addChildEntry(entry);
+    }
+
+    static List<SearchableEntry> projection(List<Entry> entries) {
+        List<SearchableEntry> projection = new ArrayList<>(entries.size());
+        for (Entry entry : entries)
+            projection.add(new SearchableEntry(entry));
+        return projection;
+    }
+
+    /**
+     * @return search index of entries on default weights.
+     */
+    static SearchIndex index(List<Entry> entries) {
+        return new SearchIndex(entries, FieldWeights.DEFAULT, ForkJoinPool.commonPool());
+    }
+
+    private static Entry entry(Random random, int i) {
+        // popular services are much more common (roughly Zipf)
+        String service = SERVICES[(int) (SERVICES.length * Math.pow(random.nextDouble(), 2))];
+        String title = Character.toUpperCase(service.charAt(0)) + service.substring(1);
+        if (random.nextInt(10) == 0)
+            title = pick(random, CJK_TITLES);
+        if (random.nextInt(3) == 0)
+            title += " " + pick(random, QUALIFIERS);
+        if (random.nextInt(10) == 0)
+            title += " " + i;
+
+        Entry entry = new Entry(new EntryKDBX());
+        entry.setTitle(title);
+        entry.setUsername(random.nextBoolean()
+                ? "user" + random.nextInt(1000) + "@" + pick(random, SERVICES) + ".com"
+                : "user" + random.nextInt(1000));
+        if (random.nextInt(5) > 0)
+            entry.setUrl("https://" + pick(random, SUBDOMAINS) + service + "."
+                    + pick(random, SUFFIXES) + pick(random, PATHS));
+        // most notes are empty, a few are long
+        if (random.nextInt(3) == 0)
+            entry.setNotes(words(random, 1 + (int) (-20 * Math.log(1 - random.nextDouble()))));
+        return entry;
+    }
+
+    private static String pick(Random random, String[] strings) {
+        return strings[random.nextInt(strings.length)];
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                builder.append(i % 12 == 0 ? "\n" : " ");
+            builder.append(pick(random, WORDS));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,55 @@
+package org.sorz.lab.tinykeepass.search;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import com.kunzisoft.keepass.database.element.Entry;
+
+/**
+ * Compare Tokenizer against the former regex-based one.
+ *
+ * Skipped unless run with `./gradlew test -Pbenchmark=true`.
+ */
+public class TokenizerBenchmark {
+    private static final int VAULT_SIZE = 10_000;
+    private static final Set<String> LEGACY_IGNORE_TOKENS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("com", "net", "org")));
+
+    @Before
+    public void assumeBenchmarkEnabled() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void compareWithRegexTokenizer() {
+        List<String> fields = new ArrayList<>();
+        for (Entry entry : SyntheticVault.generate(VAULT_SIZE, 0)) {
+            fields.add(entry.getTitle());
+            fields.add(entry.getNotes());
+            fields.add(entry.getUrl());
+        }
+        int[] next = {0};
+        Bench.printHeader();
+        Bench.run("regex tokenizer (field)", VAULT_SIZE, () ->
+                legacyParse(fields.get(next[0]++ % fields.size())).forEach(token -> {}));
+        Bench.run("scanner tokenizer (field)", VAULT_SIZE, () ->
+                Tokenizer.parse(fields.get(next[0]++ % fields.size()), token -> {}));
+    }
+
+    // Tokenizer.parse(String) before it was rewritten without regex.
+    private static Stream<String> legacyParse(String str) {
+        return Arrays.stream(str.split("\\b"))
+                .filter(s -> s.matches("\\w{2,}"))
+                .filter(s -> !LEGACY_IGNORE_TOKENS.contains(s))
+                .map(String::toLowerCase);
+    }
+}
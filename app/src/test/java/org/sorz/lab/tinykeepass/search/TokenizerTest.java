@@ -0,0 +1,45 @@
+package org.sorz.lab.tinykeepass.search;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class TokenizerTest {
+    private static List<String> parse(String text) {
+        return Tokenizer.parse(text).collect(Collectors.toList());
+    }
+
+    @Test
+    public void cjkBigrams() {
+        assertEquals(Arrays.asList("招商", "商银", "银行"), parse("招商银行"));
+        // the prolonged sound mark is part of a katakana word
+        assertEquals(Arrays.asList("ヤフ", "フー"), parse("ヤフー"));
+        assertEquals(Arrays.asList("コー", "ーヒ", "ヒー"), parse("コーヒー"));
+        assertEquals(Arrays.asList("카카", "카오", "오톡"), parse("카카오톡"));
+        // a lone character is kept as it is
+        assertEquals(Collections.singletonList("淘"), parse("淘"));
+        assertEquals(Arrays.asList("淘", "宝"), parse("淘 宝"));
+    }
+
+    @Test
+    public void cjkNextToOtherWords() {
+        // runs of CJK and other letters are split apart, without crossing
+        assertEquals(Arrays.asList("淘宝", "taobao", "账号"), parse("淘宝TaoBao账号"));
+        assertEquals(Arrays.asList("中国", "国银", "银行", "boc"), parse("中国银行 (BOC)"));
+        // a CJK character outside the BMP is one code point
+        assertEquals(Arrays.asList("𠀀中", "中文"), parse("𠀀中文"));
+    }
+
+    @Test
+    public void words() {
+        assertEquals(Arrays.asList("github", "a", "com"), Tokenizer.words("GitHub a.com"));
+        assertEquals(Arrays.asList("招", "商", "x"), Tokenizer.words("招商x"));
+        // short and ignored tokens are dropped on parse() only
+        assertEquals(Collections.singletonList("github"), parse("GitHub a.com"));
+    }
+}
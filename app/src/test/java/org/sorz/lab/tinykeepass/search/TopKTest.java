@@ -0,0 +1,70 @@
+package org.sorz.lab.tinykeepass.search;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TopKTest {
+    @Test
+    public void largest() {
+        long[] keys = {5, 1, 9, 3, 9, 7, 100};
+        assertArrayEquals(new long[] {9, 9, 7}, TopK.largest(keys, 6, 3));
+        assertArrayEquals(new long[] {9, 9, 7, 5, 3, 1}, TopK.largest(keys, 6, 10));
+        assertArrayEquals(new long[0], TopK.largest(keys, 6, 0));
+        assertArrayEquals(new long[0], TopK.largest(keys, 0, 3));
+    }
+
+    @Test
+    public void largestSameAsSorting() {
+        Random random = new Random(42);
+        for (int round = 0; round < 2000; round++) {
+            int size = random.nextInt(50);
+            // a small range, so keys are often equal
+            long[] keys = LongStream.generate(() -> random.nextInt(20) - 5)
+                    .limit(size + random.nextInt(3)).toArray();
+            int k = random.nextInt(size + 3);
+            long[] sorted = Arrays.copyOf(keys, size);
+            Arrays.sort(sorted);
+            long[] expected = new long[Math.min(k, size)];
+            for (int i = 0; i < expected.length; i++)
+                expected[i] = sorted[size - 1 - i];
+            assertArrayEquals(expected, TopK.largest(keys, size, k));
+        }
+    }
+
+    @Test
+    public void firstSameAsSorting() {
+        Random random = new Random(42);
+        Comparator<String> order = Comparator.comparing(String::length)
+                .thenComparing(Comparator.naturalOrder());
+        for (int round = 0; round < 2000; round++) {
+            List<String> items = new ArrayList<>();
+            int size = random.nextInt(50);
+            for (int i = 0; i < size; i++)
+                items.add(Integer.toString(random.nextInt(30), 36));
+            int k = random.nextInt(size + 3);
+            List<String> sorted = new ArrayList<>(items);
+            sorted.sort(order);
+
+            int[] first = TopK.first(items, order, k);
+            assertEquals(Math.min(k, size), first.length);
+            Set<Integer> distinct = new HashSet<>();
+            for (int i = 0; i < first.length; i++) {
+                // equal items may be picked in any order, but each only once
+                assertEquals(sorted.get(i), items.get(first[i]));
+                distinct.add(first[i]);
+            }
+            assertEquals(first.length, distinct.size());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.sorz.lab.tinykeepass.search;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import com.kunzisoft.keepass.database.element.Entry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrigramIndexTest {
+    // optimal string alignment distance, computed on the full table
+    private static int distance(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++)
+            d[i][0] = i;
+        for (int j = 0; j <= b.length(); j++)
+            d[0][j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1),
+                        d[i - 1][j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2)
+                        && a.charAt(i - 2) == b.charAt(j - 1))
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    private static int closestPrefixDistance(String word, String term) {
+        int closest = Integer.MAX_VALUE;
+        for (int j = 0; j <= term.length(); j++)
+            closest = Math.min(closest, distance(word, term.substring(0, j)));
+        return closest;
+    }
+
+    private static String randomString(Random random, int maxLength) {
+        StringBuilder builder = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++)
+            builder.append("abcd".charAt(random.nextInt(4)));
+        return builder.toString();
+    }
+
+    private static TrigramIndex index(String... titles) {
+        List<Entry> entries = new ArrayList<>();
+        for (String title : titles)
+            entries.add(SyntheticVault.entry(title));
+        return new TrigramIndex(SyntheticVault.projection(entries));
+    }
+
+    @Test
+    public void corrections() {
+        TrigramIndex index = index("github", "gitlab", "amazon", "gmail", "git");
+        assertEquals(Collections.singletonList("github"), index.corrections("gihtub"));
+        assertEquals(Collections.singletonList("github"), index.corrections("igthub"));
+        assertEquals(Collections.singletonList("amazon"), index.corrections("amazn"));
+        assertEquals(new HashSet<>(Arrays.asList("github", "gitlab", "git")),
+                new HashSet<>(index.corrections("gitx")));
+        // sharing only "$$g" with gmail is not enough
+        assertFalse(index.corrections("gnai").contains("gmail"));
+        assertEquals(Collections.emptyList(), index.corrections("git"));
+    }
+
+    @Test
+    public void prefixDistance() {
+        assertEquals(0, TrigramIndex.prefixDistance("git", "github", 2));
+        assertEquals(0, TrigramIndex.prefixDistance("github", "github", 2));
+        // substitution, insertion, deletion
+        assertEquals(1, TrigramIndex.prefixDistance("gothub", "github", 2));
+        assertEquals(1, TrigramIndex.prefixDistance("githhub", "github", 2));
+        assertEquals(1, TrigramIndex.prefixDistance("gitub", "github", 2));
+        // an adjacent transposition is one edit
+        assertEquals(1, TrigramIndex.prefixDistance("gihtub", "github", 2));
+        assertEquals(1, TrigramIndex.prefixDistance("igt", "github", 1));
+        // a typo on an incomplete word
+        assertEquals(1, TrigramIndex.prefixDistance("gut", "github", 1));
+        // longer than the term
+        assertEquals(2, TrigramIndex.prefixDistance("githubbb", "github", 2));
+        assertTrue(TrigramIndex.prefixDistance("gitlab", "github", 1) > 1);
+        assertTrue(TrigramIndex.prefixDistance("amazon", "github", 2) > 2);
+    }
+
+    @Test
+    public void prefixDistanceSameAsFullTable() {
+        Random random = new Random(42);
+        for (int round = 0; round < 20000; round++) {
+            String word = randomString(random, 7);
+            String term = randomString(random, 9);
+            int max = random.nextInt(4);
+            int expected = closestPrefixDistance(word, term);
+            int actual = TrigramIndex.prefixDistance(word, term, max);
+            String message = word + " on " + term + " within " + max;
+            if (expected <= max)
+                assertEquals(message, expected, actual);
+            else
+                assertTrue(message, actual > max);
+        }
+    }
+}